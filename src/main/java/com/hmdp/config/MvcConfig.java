@@ -2,6 +2,8 @@ package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshInterceptor;
+import com.hmdp.utils.ResponseCache;
+import com.hmdp.utils.ResponseCacheInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -15,6 +17,9 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ResponseCache responseCache;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         //登录拦截器
@@ -27,9 +32,12 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/blog/hot",
                         "/user/code",
                         "/user/login",
-                        "/api/**"
+                        "/api/**",
+                        "/admin/cache/metrics"
                 ).order(1);
         //token刷新拦截器
         registry.addInterceptor(new RefreshInterceptor(stringRedisTemplate)).order(0);
+        //响应缓存拦截器，放在登录拦截器之后
+        registry.addInterceptor(new ResponseCacheInterceptor(responseCache)).order(2);
     }
 }
@@ -3,6 +3,8 @@ package com.hmdp.config;
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.MapperMetricsInterceptor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -14,4 +16,10 @@ public class MybatisConfig {
         interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.MYSQL));
         return interceptor;
     }
+
+    //统计每个Mapper方法的耗时，mybatis-plus会自动注册容器中的Interceptor
+    @Bean
+    public MapperMetricsInterceptor mapperMetricsInterceptor(CacheMetrics cacheMetrics) {
+        return new MapperMetricsInterceptor(cacheMetrics);
+    }
 }
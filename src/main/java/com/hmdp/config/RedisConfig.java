@@ -0,0 +1,40 @@
+package com.hmdp.config;
+
+import com.hmdp.service.impl.ShopTypeServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import com.hmdp.utils.SeckillVoucherRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_CHANNEL;
+
+@Configuration
+public class RedisConfig {
+
+    /**
+     * Redis发布订阅的监听容器，用于接收其他节点广播的缓存失效消息、店铺类型变更通知、秒杀券发布和售罄通知、分布式锁的释放通知（也用于唤醒互斥锁模式下等待重建的请求）
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory redisConnectionFactory, CacheClient cacheClient,
+            ShopTypeServiceImpl shopTypeService, SeckillSoldOutFlags soldOutFlags,
+            SeckillVoucherRegistry voucherRegistry, RedisLockClient lockClient) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener(cacheClient, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        container.addMessageListener(shopTypeService, new ChannelTopic(CACHE_SHOP_TYPE_CHANNEL));
+        container.addMessageListener(soldOutFlags, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        container.addMessageListener(voucherRegistry, new ChannelTopic(SECKILL_VOUCHER_CHANNEL));
+        container.addMessageListener(lockClient, new ChannelTopic(LOCK_RELEASED_CHANNEL));
+        return container;
+    }
+}
@@ -0,0 +1,63 @@
+package com.hmdp.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CachedResponse;
+import com.hmdp.utils.ResponseCache;
+import com.hmdp.utils.ResponseCacheInterceptor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 标记了@CachedResponse的接口未命中时，把成功的Result序列化为字节写入响应缓存。
+ * 这里多序列化一次，只发生在未命中时；之后命中的请求不再序列化。
+ */
+@Slf4j
+@RestControllerAdvice
+public class ResponseCacheAdvice implements ResponseBodyAdvice<Object> {
+
+    @Resource
+    private ResponseCache responseCache;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return returnType.hasMethodAnnotation(CachedResponse.class);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (!(body instanceof Result) || !Boolean.TRUE.equals(((Result) body).getSuccess())
+                || !(request instanceof ServletServerHttpRequest)) {
+            return body;
+        }
+        HttpServletRequest servletRequest = ((ServletServerHttpRequest) request).getServletRequest();
+        String requestKey = (String) servletRequest.getAttribute(ResponseCacheInterceptor.REQUEST_KEY_ATTRIBUTE);
+        String dataKey = (String) servletRequest.getAttribute(ResponseCacheInterceptor.DATA_KEY_ATTRIBUTE);
+        Long generation = (Long) servletRequest.getAttribute(ResponseCacheInterceptor.GENERATION_ATTRIBUTE);
+        if (requestKey == null || dataKey == null || generation == null) {
+            return body;
+        }
+        try {
+            responseCache.put(requestKey, dataKey, generation, objectMapper.writeValueAsBytes(body));
+        } catch (JsonProcessingException e) {
+            log.warn("序列化响应失败，不写入响应缓存：{}", requestKey, e);
+        }
+        return body;
+    }
+}
@@ -1,14 +1,24 @@
 package com.hmdp.config;
 
 import com.hmdp.dto.Result;
+import com.hmdp.utils.TooManyRequestsException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
 @Slf4j
 @RestControllerAdvice
 public class WebExceptionAdvice {
 
+    //限流和准入控制的拒绝是预期内的，不打印异常栈
+    @ExceptionHandler(TooManyRequestsException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public Result handleTooManyRequestsException(TooManyRequestsException e) {
+        return Result.fail(e.getMessage());
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public Result handleRuntimeException(RuntimeException e) {
         log.error(e.toString(), e);
@@ -0,0 +1,51 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMetrics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存管理接口
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    /** 当前访问最多的缓存key及其近似访问次数 */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(cacheClient.getHotKeys());
+    }
+
+    /** 缓存和Mapper的指标，Prometheus文本格式，供监控系统抓取 */
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String metrics() {
+        return cacheMetrics.scrape();
+    }
+
+    /** 修改店铺类型后调用，所有节点重新加载店铺类型快照 */
+    @PostMapping("/shop-types/refresh")
+    public Result refreshShopTypes() {
+        shopTypeService.refreshShopTypes();
+        return Result.ok();
+    }
+}
@@ -6,6 +6,8 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.CachedResponse;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
@@ -28,11 +30,12 @@ public class ShopController {
 
     /**
      * 根据id查询商铺信息
-     * 加入Redis缓存的版本
+     * 加入Redis缓存的版本，另外缓存序列化好的响应，店铺缓存删除时一起删除
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
+    @CachedResponse(key = RedisConstants.CACHE_SHOP_KEY + "{id}")
     public Result queryShopById(@PathVariable("id") Long id) {
         //从redis中返回
         return shopService.queryById(id);
@@ -45,10 +48,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，并加入布隆过滤器
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -1,15 +1,16 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
-import com.hmdp.entity.ShopType;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -26,8 +27,18 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService shopTypeService;
 
+    /**
+     * 直接返回快照中序列化好的响应体；请求头If-None-Match和ETag一致时返回304，不返回响应体
+     */
     @GetMapping("/list")
-    public Result queryTypeList() {
-        return shopTypeService.getAllInList();
+    public ResponseEntity<byte[]> queryTypeList(WebRequest request) {
+        ShopTypeSnapshot snapshot = shopTypeService.getSnapshot();
+        if (request.checkNotModified(snapshot.getEtag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
     }
 }
@@ -0,0 +1,24 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照：列表本身、预先序列化好的响应体，以及响应体的ETag。
+ * 刷新时整体替换，读取时不需要加锁也不需要再序列化。
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    /** Redis中记录的版本号，和它不一致时重新加载 */
+    private final long version;
+    /** 不可修改的列表 */
+    private final List<ShopType> shopTypes;
+    /** Result.ok(shopTypes)序列化后的JSON */
+    private final byte[] body;
+    /** 响应体的MD5，带双引号 */
+    private final String etag;
+}
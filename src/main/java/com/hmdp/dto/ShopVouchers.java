@@ -0,0 +1,20 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.Voucher;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 店铺的优惠券列表，作为一个整体缓存在Redis和一级缓存中。
+ * 一级缓存中的对象被所有请求共享，读取后不能修改，需要修改时先复制。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShopVouchers {
+    /** 优惠券列表，其中秒杀券的库存是缓存时的值，读取时用Redis中的实时库存覆盖 */
+    private List<Voucher> vouchers;
+}
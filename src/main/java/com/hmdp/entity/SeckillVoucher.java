@@ -52,6 +52,21 @@ public class SeckillVoucher implements Serializable {
      */
     private LocalDateTime endTime;
 
+    /**
+     * 单节点每秒放行的秒杀请求数
+     */
+    private Integer rateLimit;
+
+    /**
+     * 所有节点合计每秒放行的秒杀请求数
+     */
+    private Integer globalRateLimit;
+
+    /**
+     * 每人限购数量
+     */
+    private Integer userLimit;
+
     /**
      * 更新时间
      */
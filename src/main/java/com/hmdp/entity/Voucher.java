@@ -90,6 +90,24 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 单节点每秒放行的秒杀请求数
+     */
+    @TableField(exist = false)
+    private Integer rateLimit;
+
+    /**
+     * 所有节点合计每秒放行的秒杀请求数
+     */
+    @TableField(exist = false)
+    private Integer globalRateLimit;
+
+    /**
+     * 每人限购数量
+     */
+    @TableField(exist = false)
+    private Integer userLimit;
+
     /**
      * 创建时间
      */
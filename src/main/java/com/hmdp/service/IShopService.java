@@ -14,5 +14,6 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopService extends IService<Shop> {
     Result queryById(Long id);
+    Result saveShop(Shop shop);
     Result updateShopWithCache(Shop shop);
 }
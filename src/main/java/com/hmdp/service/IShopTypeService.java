@@ -1,6 +1,7 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -16,4 +17,10 @@ public interface IShopTypeService extends IService<ShopType> {
 
     Result getAllInList();
 
+    /** 当前的店铺类型快照，包括序列化好的响应体和ETag */
+    ShopTypeSnapshot getSnapshot();
+
+    /** 修改店铺类型后调用，通知所有节点重新加载 */
+    void refreshShopTypes();
+
 }
@@ -16,5 +16,9 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    void addVoucher(Voucher voucher);
+
     void addSeckillVoucher(Voucher voucher);
+
+    Result addSeckillStock(Long voucherId, Integer count);
 }
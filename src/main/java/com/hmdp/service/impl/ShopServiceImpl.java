@@ -3,6 +3,8 @@ package com.hmdp.service.impl;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
@@ -11,18 +13,30 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
-import com.hmdp.utils.SimpleThreadPool;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_BLOOM_REBUILD_INTERVAL;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_WARM_UP_INTERVAL;
 
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -35,18 +49,83 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    //配置的热点店铺id，逗号分隔
+    @Value("${hmdp.cache.warm-up.shop-ids:}")
+    private String warmUpShopIds;
+
+    //按销量取前N个店铺作为热点，0表示不取
+    @Value("${hmdp.cache.warm-up.top-n:100}")
+    private int warmUpTopN;
+
     @Override
     public Result queryById(Long id) {
         //使用单独的缓存防穿透见方法queryByIdWithPassThrough
-        //此处为使用简易互斥锁解决缓存击穿
-//        Shop shop = queryByIdWithMutex(id);
-        Shop shop = cacheClient.queryByIdWithPassThrough(CACHE_SHOP_KEY,id,Shop.class,id2 -> getById(id2),CACHE_SHOP_TTL,TimeUnit.MINUTES);
+        //同一个JVM内的并发未命中已经在CacheClient中合并，需要多节点互斥时在hmdp.cache.mutex-prefixes中加入cache:shop:
+        //访问频率高的店铺（以及预热过的店铺）自动切换为逻辑过期并常驻一级缓存，其余店铺使用防穿透版本
+        Shop shop = cacheClient.queryByIdWithHotKey(CACHE_SHOP_KEY,id,Shop.class,id2 -> getById(id2),CACHE_SHOP_TTL,TimeUnit.MINUTES);
         if (shop == null){
             return Result.fail("店铺不存在");
         }
         return Result.ok(shop);
     }
 
+    /**
+     * 热点店铺缓存预热：应用启动完成后执行一次，之后定时执行。
+     * 热点店铺取配置的id，再加上销量最高的前N个店铺，预热后直接晋升为热点key。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelay = CACHE_WARM_UP_INTERVAL, fixedDelay = CACHE_WARM_UP_INTERVAL)
+    public void warmUpHotShops() {
+        try {
+            Set<Long> ids = new LinkedHashSet<>();
+            for (String shopId : StrUtil.split(warmUpShopIds, ',', true, true)) {
+                ids.add(Long.valueOf(shopId));
+            }
+            if (warmUpTopN > 0) {
+                List<Shop> topShops = query().select("id").orderByDesc("sold").last("limit " + warmUpTopN).list();
+                for (Shop topShop : topShops) {
+                    ids.add(topShop.getId());
+                }
+            }
+            cacheClient.warmUpHotKeys(CACHE_SHOP_KEY, ids,
+                    batch -> listByIds(batch).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                    CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            log.error("热点店铺缓存预热失败", e);
+        }
+    }
+
+    /** 店铺缓存按version字段比较新旧，并发回源读到的旧数据不会覆盖更新后的缓存 */
+    @PostConstruct
+    public void registerShopCacheVersion() {
+        cacheClient.registerVersion(CACHE_SHOP_KEY, Shop.class, Shop::getVersion);
+    }
+
+    /** 启动时以及定时从tb_shop的主键重建布隆过滤器，定时重建可以清除已删除的店铺 */
+    @PostConstruct
+    @Scheduled(initialDelay = CACHE_BLOOM_REBUILD_INTERVAL, fixedDelay = CACHE_BLOOM_REBUILD_INTERVAL)
+    public void rebuildShopBloomFilter() {
+        try {
+            // 预留一倍容量给两次重建之间新增的店铺
+            long expected = count() * 2 + 1000;
+            cacheClient.rebuildBloomFilter(CACHE_SHOP_KEY, expected,
+                    () -> listObjs(new QueryWrapper<Shop>().select("id")));
+        } catch (Exception e) {
+            // 重建失败时保留旧的过滤器（启动时失败则不启用），不影响正常查询
+            log.error("重建店铺布隆过滤器失败", e);
+        }
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        shop.setVersion(0L);
+        save(shop);
+        // 新店铺加入布隆过滤器，并清除之前可能写入的空值缓存（记录版本号0，并发写入的空值会被拒绝）
+        cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        cacheClient.invalidate(CACHE_SHOP_KEY + shop.getId(), shop.getVersion());
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional
     public Result updateShopWithCache(Shop shop) {
@@ -54,12 +133,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null){
             return Result.fail("id不能为空");
         }
-//        1. 更新数据库
+//        1. 更新数据库，同时版本号加1
 //         注意：小知识点，使用MybatisPlus时，service和mapper都有updateById这个方法。
 //         但是，前者返回的是boolean操作是否成功，后者返回的是int，操作了多少条。
-        updateById(shop);
-//        2.删除缓存；
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+//         这里用update(entity, wrapper)，版本号只能由数据库自增，不能用前端传来的值
+        shop.setVersion(null);
+        boolean updated = update(shop, new UpdateWrapper<Shop>().setSql("version = version + 1").eq("id", id));
+        if (!updated) {
+            return Result.fail("店铺不存在");
+        }
+//         在同一个事务中读取更新后的版本号
+        Long version = getById(id).getVersion();
+//        2.事务提交后删除缓存并记录新版本号，再延迟删除一次（同时广播让所有节点删除本地一级缓存）；
+        cacheClient.invalidateAfterCommit(CACHE_SHOP_KEY + id, version);
 //        3.返回成功信息；
         return Result.ok("更新成功");
     }
@@ -1,48 +1,136 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.CacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 店铺类型很少变化，整个列表在JVM中保存为不可变快照（包括序列化好的响应体和ETag），
+ * Redis中保存列表的JSON和版本号。修改店铺类型后调用refreshShopTypes：版本号加1并广播，
+ * 各节点收到广播后重新加载；广播丢失时，定时的版本号检查兜底。
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
-public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
+public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService, MessageListener {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private ShopTypeMapper shopTypeMapper;
+    private CacheMetrics cacheMetrics;
+
+    //和Spring MVC序列化响应使用同一个ObjectMapper，保证预先序列化的结果和直接返回Result一致
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private volatile ShopTypeSnapshot snapshot;
 
     @Override
     public Result getAllInList() {
-        String key = RedisConstants.CACHE_SHOP_KEY + "all";
-        String shopTypeListString = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(shopTypeListString)){
-            return Result.ok(JSONUtil.toList(shopTypeListString, ShopType.class));
+        return Result.ok(getSnapshot().getShopTypes());
+    }
+
+    @Override
+    public ShopTypeSnapshot getSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            cacheMetrics.cache(CACHE_SHOP_TYPE_KEY).localHits.increment();
+            return current;
+        }
+        return reload();
+    }
+
+    @Override
+    public void refreshShopTypes() {
+        //先删除Redis中的列表再增加版本号，其他节点看到新版本号时一定会从数据库重新加载
+        stringRedisTemplate.delete(CACHE_SHOP_TYPE_KEY);
+        stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(CACHE_SHOP_TYPE_CHANNEL, "");
+    }
+
+    //收到店铺类型变更的广播（也包括自己发出的）
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        reload();
+    }
+
+    //广播丢失时的兜底：版本号和快照不一致就重新加载
+    @Scheduled(initialDelay = CACHE_SHOP_TYPE_CHECK_INTERVAL, fixedDelay = CACHE_SHOP_TYPE_CHECK_INTERVAL)
+    public void checkVersion() {
+        ShopTypeSnapshot current = snapshot;
+        try {
+            if (current != null && current.getVersion() != currentVersion()) {
+                reload();
+            }
+        } catch (Exception e) {
+            log.error("检查店铺类型版本号失败", e);
         }
-        List<ShopType> shopTypes = shopTypeMapper.selectList(null);
-        if (shopTypes == null){
-            return Result.fail("商户列表为空，请核查数据库！");
+    }
+
+    //先读Redis中的JSON，没有（或者是旧版本写入的非JSON格式）再查数据库并写回Redis
+    private synchronized ShopTypeSnapshot reload() {
+        long version = currentVersion();
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && current.getVersion() == version) {
+            return current;
+        }
+        CacheMetrics.CacheStats stats = cacheMetrics.cache(CACHE_SHOP_TYPE_KEY);
+        long start = System.nanoTime();
+        String json = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
+        stats.redis.recordSince(start);
+        List<ShopType> shopTypes;
+        if (StrUtil.isNotBlank(json) && JSONUtil.isTypeJSONArray(json)) {
+            stats.hits.increment();
+            shopTypes = JSONUtil.toList(json, ShopType.class);
+        } else {
+            stats.misses.increment();
+            start = System.nanoTime();
+            shopTypes = query().orderByAsc("sort").list();
+            stats.db.recordSince(start);
+            stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(shopTypes));
+        }
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(shopTypes));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化店铺类型列表失败", e);
         }
-        stringRedisTemplate.opsForValue().set(key,StrUtil.toString(shopTypes));
-        return Result.ok(shopTypes);
+        ShopTypeSnapshot loaded = new ShopTypeSnapshot(version, Collections.unmodifiableList(shopTypes), body,
+                "\"" + DigestUtil.md5Hex(body) + "\"");
+        snapshot = loaded;
+        log.debug("加载店铺类型快照：version={}, size={}", version, shopTypes.size());
+        return loaded;
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0L : Long.parseLong(version);
     }
 }
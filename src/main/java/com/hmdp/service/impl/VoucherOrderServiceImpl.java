@@ -1,10 +1,70 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.io.resource.ResourceUtil;
+import cn.hutool.core.net.NetUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.HotRowMerger;
+import com.hmdp.utils.LatencyHistogram;
+import com.hmdp.utils.RedisDelayQueue;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillLimiter;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import com.hmdp.utils.SeckillVoucherRegistry;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -14,7 +74,609 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
+    private static final byte[] SECKILL_SCRIPT = ResourceUtil.readBytes("seckill.lua");
+    private static final byte[] COMPENSATE_SCRIPT = ResourceUtil.readBytes("seckill_compensate.lua");
+    private static final String[] SECKILL_ERRORS = {
+            null, "库存不足", "超过限购数量", "秒杀尚未开始", "秒杀已经结束", "秒杀券不存在", null
+    };
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    @Resource
+    private SeckillSoldOutFlags soldOutFlags;
+    @Resource
+    private SeckillLimiter seckillLimiter;
+    @Resource
+    private SeckillVoucherRegistry voucherRegistry;
+    @Resource
+    private TransactionTemplate transactionTemplate;
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    //消费者名称在重启后保持不变，这样重启前没有确认的消息还能从自己的pending-list里找回
+    @Value("${server.port}")
+    private String port;
+    private String consumerName;
+    //本节点的消费线程数，多个线程对同一个优惠券的库存扣减由stockMerger合并
+    @Value("${hmdp.seckill.order-consumers:2}")
+    private int consumerCount;
+    private OrderConsumer[] consumers;
+
+    private ExecutorService orderExecutor;
+    private volatile boolean running = true;
+
+    private LongAdder sinkOrders;
+    private LongAdder sinkBatches;
+    private LongAdder sinkRetries;
+    private LongAdder sinkFailures;
+    private LatencyHistogram sinkCommitTime;
+    private LongAdder sinkCompensated;
+    private LongAdder timeoutCancelled;
+
+    //未支付订单的超时取消
+    private RedisDelayQueue timeoutQueue;
+    //同一个优惠券的扣库存和写订单合并成一个事务
+    private HotRowMerger<VoucherOrder> stockMerger;
+
+    @PostConstruct
+    private void init() {
+        consumerName = NetUtil.getLocalHostName() + ":" + port;
+        sinkOrders = cacheMetrics.counter("hmdp_order_sink_orders_total");
+        sinkBatches = cacheMetrics.counter("hmdp_order_sink_batches_total");
+        sinkRetries = cacheMetrics.counter("hmdp_order_sink_retries_total");
+        sinkFailures = cacheMetrics.counter("hmdp_order_sink_batch_failures_total");
+        sinkCommitTime = cacheMetrics.histogram("hmdp_order_sink_commit_seconds");
+        sinkCompensated = cacheMetrics.counter("hmdp_order_sink_compensated_total");
+        timeoutCancelled = cacheMetrics.counter("hmdp_order_timeout_cancelled_total");
+        timeoutQueue = new RedisDelayQueue(stringRedisTemplate, ORDER_TIMEOUT_KEY, this::cancelTimeoutOrders, cacheMetrics);
+        timeoutQueue.start();
+        stockMerger = new HotRowMerger<>(
+                (voucherId, orders) -> transactionTemplate.execute(status -> deductAndSave(voucherId, orders)),
+                SECKILL_STOCK_MERGE_MAX_SIZE, cacheMetrics, "seckill_stock");
+        createGroup();
+        consumers = new OrderConsumer[Math.max(consumerCount, 1)];
+        orderExecutor = Executors.newFixedThreadPool(consumers.length, new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "seckill-order-" + index.getAndIncrement());
+            }
+        });
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new OrderConsumer(consumerName + "#" + i);
+            orderExecutor.submit(consumers[i]);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() throws InterruptedException {
+        running = false;
+        timeoutQueue.stop();
+        orderExecutor.shutdown();
+        if (!orderExecutor.awaitTermination(SECKILL_ORDER_BLOCK_TIME * 2, TimeUnit.MILLISECONDS)) {
+            orderExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId) {
+        // 1.本地已经标记售罄，不访问Redis直接返回
+        if (soldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 2.用本地注册表中的秒杀时间过滤，不需要任何I/O；这里只是提前过滤，以Lua脚本中的Redis服务器时间为准
+        SeckillVoucherRegistry.Entry entry = voucherRegistry.get(voucherId);
+        if (entry != null) {
+            long now = System.currentTimeMillis();
+            if (entry.notStarted(now)) {
+                return Result.fail("秒杀尚未开始");
+            }
+            if (entry.ended(now)) {
+                return Result.fail("秒杀已经结束");
+            }
+        }
+        // 3.准入控制和限流，超出处理能力的请求直接返回429
+        seckillLimiter.enter();
+        try {
+            seckillLimiter.acquire(voucherId, entry);
+            return doSeckill(voucherId);
+        } finally {
+            seckillLimiter.exit();
+        }
+    }
+
+    private Result doSeckill(Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        long orderId = redisIdWorker.nextId("order");
+        // 4.执行lua脚本，判断秒杀时间、库存和限购数量，成功时扣减库存并把订单写入stream
+        Long result = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(
+                SECKILL_SCRIPT, ReturnType.INTEGER, 4,
+                rawKey(SECKILL_STOCK_KEY + voucherId),
+                rawKey(SECKILL_VOUCHER_KEY + voucherId),
+                rawKey(SECKILL_ORDER_KEY + voucherId),
+                rawKey(SECKILL_ORDER_STREAM),
+                rawKey(voucherId.toString()),
+                rawKey(userId.toString()),
+                rawKey(String.valueOf(orderId))));
+        int r = result == null ? 5 : result.intValue();
+        // 5.库存扣到了0，或者已经是0，标记售罄并广播
+        if (r == 1 || r == 6) {
+            soldOutFlags.markSoldOut(voucherId);
+        } else if (r == 0) {
+            soldOutFlags.clearLocal(voucherId);
+        }
+        // 6.下单失败，没有购买资格
+        if (r != 0 && r != 6) {
+            return Result.fail(SECKILL_ERRORS[r]);
+        }
+        // 7.订单由后台线程异步写入数据库，直接返回订单id
+        return Result.ok(orderId);
+    }
+
+    /**
+     * 一个消费线程，每个线程是消费者组里的一个消费者，有自己的pending-list
+     */
+    private class OrderConsumer implements Runnable {
+
+        private final String name;
+        //其他节点的消息被转移到自己名下、或者处理失败后置为true，由消费线程处理pending-list
+        private volatile boolean pendingClaimed = true;
+        //pending-list处理失败后的退避：到pendingRetryAt之前只消费新消息，每次失败退避时间翻倍
+        private long pendingBackoff;
+        private long pendingRetryAt;
+
+        OrderConsumer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            consumeOrders();
+        }
+
+        private void consumeOrders() {
+            while (running) {
+                if (pendingClaimed && System.currentTimeMillis() >= pendingRetryAt) {
+                    pendingClaimed = false;
+                    handlePendingList();
+                }
+                try {
+                    // 1.攒一批订单：数量达到上限，或者从第一条到达起超过linger时间
+                    List<MapRecord<String, Object, Object>> batch = collectBatch();
+                    // 2.没有消息，继续下一次循环
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+                    // 3.整批写入数据库，成功后ACK；逐条重试也失败的消息留在pending-list里，退避后重新处理
+                    if (!writeBatch(batch)) {
+                        pendingClaimed = true;
+                    }
+                } catch (Exception e) {
+                    log.error("处理订单异常", e);
+                    // 4.处理失败的消息留在pending-list里，重新处理
+                    pendingClaimed = true;
+                    sleepQuietly(20);
+                }
+            }
+        }
+
+        private List<MapRecord<String, Object, Object>> collectBatch() {
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>();
+            long deadline = 0;
+            while (running && batch.size() < SECKILL_ORDER_BATCH_SIZE) {
+                // XREADGROUP GROUP g1 c1 COUNT n BLOCK t STREAMS stream.orders >
+                long block = batch.isEmpty() ? SECKILL_ORDER_BLOCK_TIME : deadline - System.currentTimeMillis();
+                if (block <= 0) {
+                    break;
+                }
+                List<MapRecord<String, Object, Object>> list = readOrders(SECKILL_ORDER_BATCH_SIZE - batch.size(), block);
+                if (list == null || list.isEmpty()) {
+                    break;
+                }
+                if (batch.isEmpty()) {
+                    deadline = System.currentTimeMillis() + SECKILL_ORDER_LINGER_TIME;
+                }
+                batch.addAll(list);
+            }
+            return batch;
+        }
+
+        private void handlePendingList() {
+            while (running) {
+                try {
+                    // 1.获取pending-list中的订单 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, name),
+                            StreamReadOptions.empty().count(SECKILL_ORDER_BATCH_SIZE),
+                            StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.from("0")));
+                    // 2.pending-list已经处理完
+                    if (list == null || list.isEmpty()) {
+                        pendingBackoff = 0;
+                        return;
+                    }
+                    // 3.逐条重试也失败（例如数据库暂时不可用）：退避一段时间后再处理，期间继续消费新消息
+                    if (!writeBatch(list)) {
+                        retryPendingLater();
+                        return;
+                    }
+                } catch (Exception e) {
+                    log.error("处理pending-list订单异常", e);
+                    retryPendingLater();
+                    return;
+                }
+            }
+        }
+
+        //这些订单已经返回了下单成功，不能放弃，只能推迟
+        private void retryPendingLater() {
+            pendingBackoff = pendingBackoff == 0 ? SECKILL_ORDER_PENDING_BACKOFF_MIN
+                    : Math.min(pendingBackoff * 2, SECKILL_ORDER_PENDING_BACKOFF_MAX);
+            pendingRetryAt = System.currentTimeMillis() + pendingBackoff;
+            pendingClaimed = true;
+            log.warn("消费者{}的pending-list处理失败，{}ms后重试", name, pendingBackoff);
+        }
+
+        private List<MapRecord<String, Object, Object>> readOrders(int count, long blockMillis) {
+            try {
+                return stringRedisTemplate.opsForStream().read(
+                        Consumer.from(SECKILL_ORDER_GROUP, name),
+                        StreamReadOptions.empty().count(count).block(Duration.ofMillis(blockMillis)),
+                        StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+            } catch (Exception e) {
+                //stream或消费者组被删除后重新创建
+                if (e.getMessage() != null && e.getMessage().contains("NOGROUP")) {
+                    createGroup();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 组提交：一批订单按优惠券分组交给stockMerger，和其他消费线程对同一个优惠券的写入合并，
+     * 库存合并成一条UPDATE，订单用一条多行INSERT写入。
+     * 失败后整批重试，重试仍然失败时退化为逐条写入，把有问题的订单隔离出来
+     * @return 整批是否都已经写入并ACK
+     */
+    private boolean writeBatch(List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            orders.add(toVoucherOrder(record));
+        }
+        long begin = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                saveOrderBatch(orders);
+                break;
+            } catch (Exception e) {
+                if (attempt >= SECKILL_ORDER_SINK_RETRIES) {
+                    log.error("批量写入{}条订单失败，改为逐条写入", orders.size(), e);
+                    sinkFailures.increment();
+                    return writeOneByOne(records);
+                }
+                sinkRetries.increment();
+                sleepQuietly(20L * attempt);
+            }
+        }
+        sinkCommitTime.recordSince(begin);
+        sinkBatches.increment();
+        sinkOrders.add(orders.size());
+        // 4.ACK之前登记超时取消，宕机后重新投递的消息会再登记一次，取消是幂等的
+        scheduleTimeout(orders);
+        acknowledge(records);
+        return true;
+    }
+
+    private boolean writeOneByOne(List<MapRecord<String, Object, Object>> records) {
+        boolean allDone = true;
+        for (MapRecord<String, Object, Object> record : records) {
+            VoucherOrder voucherOrder = toVoucherOrder(record);
+            try {
+                createVoucherOrder(voucherOrder);
+                sinkOrders.increment();
+                scheduleTimeout(Collections.singletonList(voucherOrder));
+                acknowledge(Collections.singletonList(record));
+            } catch (Exception e) {
+                log.error("写入订单{}失败", voucherOrder.getId(), e);
+                allDone = false;
+            }
+        }
+        return allDone;
+    }
+
+    private void acknowledge(List<MapRecord<String, Object, Object>> records) {
+        RecordId[] ids = new RecordId[records.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = records.get(i).getId();
+        }
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, ids);
+    }
+
+    //下单时间取消息进入stream的时间，而不是写入数据库的时间
+    private static VoucherOrder toVoucherOrder(MapRecord<String, Object, Object> record) {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+        LocalDateTime createTime = LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(record.getId().getTimestamp()), ZoneId.systemDefault());
+        return voucherOrder.setPayType(1).setStatus(1).setCreateTime(createTime);
+    }
+
+    /**
+     * 批量写入订单并扣减数据库库存。
+     * 消息可能被重复投递（ACK之前宕机、被其他节点转移），所以先查出已经存在的订单去重，重试是幂等的
+     */
+    private void saveOrderBatch(List<VoucherOrder> orders) {
+        // 1.查出这批用户已经下过的单，一次查询同时覆盖重复投递和超过限购数量；已取消的订单不占限购数量
+        Set<Long> voucherIds = new HashSet<>();
+        Set<Long> userIds = new HashSet<>();
+        for (VoucherOrder order : orders) {
+            voucherIds.add(order.getVoucherId());
+            userIds.add(order.getUserId());
+        }
+        Set<Long> savedIds = new HashSet<>();
+        Map<String, Integer> bought = new HashMap<>();
+        for (VoucherOrder existing : query().select("id", "user_id", "voucher_id", "status")
+                .in("voucher_id", voucherIds).in("user_id", userIds).list()) {
+            savedIds.add(existing.getId());
+            if (existing.getStatus() != 4) {
+                bought.merge(existing.getVoucherId() + ":" + existing.getUserId(), 1, Integer::sum);
+            }
+        }
+        Map<Long, List<VoucherOrder>> toSave = new TreeMap<>();
+        List<VoucherOrder> overLimit = new ArrayList<>();
+        List<VoucherOrder> outOfStock = new ArrayList<>();
+        for (VoucherOrder order : orders) {
+            if (!savedIds.add(order.getId())) {
+                log.debug("跳过重复订单{}", order.getId());
+                continue;
+            }
+            String key = order.getVoucherId() + ":" + order.getUserId();
+            if (bought.getOrDefault(key, 0) >= userLimitOf(order.getVoucherId())) {
+                overLimit.add(order);
+                continue;
+            }
+            bought.merge(key, 1, Integer::sum);
+            toSave.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+        }
+        // 2.每个优惠券提交一次合并写入，和其他线程对同一个优惠券的写入合并成一个事务
+        Map<Long, CompletableFuture<Integer>> futures = new TreeMap<>();
+        for (Map.Entry<Long, List<VoucherOrder>> entry : toSave.entrySet()) {
+            futures.put(entry.getKey(), stockMerger.submit(entry.getKey(), entry.getValue()));
+        }
+        // 3.数据库库存不足时只写入了排在前面的订单
+        for (Map.Entry<Long, CompletableFuture<Integer>> entry : futures.entrySet()) {
+            List<VoucherOrder> list = toSave.get(entry.getKey());
+            int saved = entry.getValue().join();
+            outOfStock.addAll(list.subList(saved, list.size()));
+        }
+        // 4.全部写完之后补偿没有写入的订单，写入失败重试时会重新判断
+        compensate(overLimit, true);
+        compensate(outOfStock, false);
+    }
+
+    /**
+     * 写入订单并扣减数据库库存。
+     * 消息可能被重复投递（ACK之前宕机、被其他节点转移），所以按订单id做幂等
+     */
+    private void createVoucherOrder(VoucherOrder voucherOrder) {
+        if (getById(voucherOrder.getId()) != null) {
+            return;
+        }
+        // 1.限购数量，Lua脚本已经校验过，这里兜底；已取消的订单不占限购数量
+        Integer count = query().eq("user_id", voucherOrder.getUserId())
+                .eq("voucher_id", voucherOrder.getVoucherId()).ne("status", 4).count();
+        if (count >= userLimitOf(voucherOrder.getVoucherId())) {
+            compensate(Collections.singletonList(voucherOrder), true);
+            return;
+        }
+        // 2.扣减库存并创建订单
+        int saved = stockMerger.submit(voucherOrder.getVoucherId(), Collections.singletonList(voucherOrder)).join();
+        if (saved == 0) {
+            compensate(Collections.singletonList(voucherOrder), false);
+        }
+    }
+
+    /**
+     * 补偿没有写入数据库的订单：Lua脚本已经为它们扣减了Redis库存、增加了用户的购买数量，用户也已经收到下单成功。
+     * 超过限购数量：用户确实已经买够了（Redis中的购买数量丢失过），购买数量保持不变，归还这一件Redis库存并清除售罄标记；
+     * 数据库库存不足：Redis库存比数据库多（例如Redis数据丢失后重新预热），这一件并不存在，不归还库存，只归还用户的购买数量。
+     * 每个订单用一个标记key保证只补偿一次，消息重复投递时不会重复补偿
+     */
+    private void compensate(List<VoucherOrder> orders, boolean overLimit) {
+        Set<Long> restocked = new TreeSet<>();
+        for (VoucherOrder order : orders) {
+            Long voucherId = order.getVoucherId();
+            Long result = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(
+                    COMPENSATE_SCRIPT, ReturnType.INTEGER, 3,
+                    rawKey(SECKILL_COMPENSATE_KEY + order.getId()),
+                    rawKey(SECKILL_STOCK_KEY + voucherId),
+                    rawKey(SECKILL_ORDER_KEY + voucherId),
+                    rawKey(String.valueOf(SECKILL_COMPENSATE_TTL)),
+                    rawKey(order.getUserId().toString()),
+                    rawKey(overLimit ? "1" : "0"),
+                    rawKey(overLimit ? "0" : "-1")));
+            if (result == null || result == 0) {
+                continue;
+            }
+            sinkCompensated.increment();
+            if (overLimit) {
+                restocked.add(voucherId);
+                log.error("用户{}购买优惠券{}超过限购数量，订单{}没有写入，已归还库存",
+                        order.getUserId(), voucherId, order.getId());
+            } else {
+                log.error("优惠券{}数据库库存不足，订单{}没有写入，已归还用户{}的购买数量",
+                        voucherId, order.getId(), order.getUserId());
+            }
+        }
+        for (Long voucherId : restocked) {
+            soldOutFlags.clear(voucherId);
+        }
+    }
+
+    /**
+     * 合并写入：一条UPDATE扣减orders.size()个库存，一条多行INSERT写入订单，必须在事务中调用。
+     * 剩余库存不足时锁住库存行，只扣减剩余的库存，写入排在前面的订单
+     * @return 写入的订单数，orders中前n个订单写入成功
+     */
+    private int deductAndSave(Long voucherId, List<VoucherOrder> orders) {
+        int n = orders.size();
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - " + n)
+                .eq("voucher_id", voucherId).ge("stock", n)
+                .update();
+        if (!success) {
+            SeckillVoucher voucher = seckillVoucherService.query().select("stock")
+                    .eq("voucher_id", voucherId).last("for update").one();
+            n = voucher == null ? 0 : Math.min(voucher.getStock(), n);
+            if (n <= 0) {
+                return 0;
+            }
+            seckillVoucherService.update()
+                    .setSql("stock = stock - " + n)
+                    .eq("voucher_id", voucherId)
+                    .update();
+        }
+        getBaseMapper().insertBatch(orders.subList(0, n));
+        return n;
+    }
+
+    //从下单时间起超过支付时限没有支付的订单自动取消
+    private void scheduleTimeout(List<VoucherOrder> orders) {
+        Map<String, Long> deadlines = new LinkedHashMap<>(orders.size() * 2);
+        for (VoucherOrder order : orders) {
+            long createTime = order.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            deadlines.put(order.getId().toString(), createTime + ORDER_PAY_TIMEOUT);
+        }
+        timeoutQueue.schedule(deadlines);
+    }
+
+    /**
+     * 批量取消超时未支付的订单：状态从1（未支付）改为4（已取消），归还数据库和Redis的库存以及用户的限购数量。
+     * 数据库和Redis分两步：事务只取消仍然是未支付状态的订单；提交后对这一批中所有已取消的订单归还Redis，
+     * 每个订单用一个标记key保证只归还一次。归还Redis失败时抛出异常，任务留在延时队列里，
+     * 重试时事务一侧已经没有要取消的订单，只会补上没有归还的Redis库存，重复执行是幂等的
+     */
+    private void cancelTimeoutOrders(List<String> members) {
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            ids.add(Long.valueOf(member));
+        }
+        Integer cancelled = transactionTemplate.execute(status -> {
+            // 1.锁住仍然未支付的订单，避免和支付并发
+            List<VoucherOrder> orders = query().select("id", "user_id", "voucher_id")
+                    .in("id", ids).eq("status", 1).last("for update").list();
+            if (orders.isEmpty()) {
+                return 0;
+            }
+            List<Long> orderIds = new ArrayList<>(orders.size());
+            Map<Long, Integer> counts = new TreeMap<>();
+            for (VoucherOrder order : orders) {
+                orderIds.add(order.getId());
+                counts.merge(order.getVoucherId(), 1, Integer::sum);
+            }
+            // 2.一条UPDATE取消这一批订单
+            update().set("status", 4).in("id", orderIds).eq("status", 1).update();
+            // 3.每个优惠券一条UPDATE归还库存，按优惠券id排序加行锁
+            for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+                seckillVoucherService.update()
+                        .setSql("stock = stock + " + entry.getValue())
+                        .eq("voucher_id", entry.getKey())
+                        .update();
+            }
+            return orders.size();
+        });
+        if (cancelled != null && cancelled > 0) {
+            timeoutCancelled.add(cancelled);
+            log.info("取消了{}个超时未支付的订单", cancelled);
+        }
+        // 4.归还Redis库存和用户的限购数量，包括之前取消了但没有归还成功的订单（只有超时取消会把状态改为4）
+        restoreCancelled(query().select("id", "user_id", "voucher_id").in("id", ids).eq("status", 4).list());
+    }
+
+    //每个已取消的订单归还一件Redis库存和一次用户购买数量，标记key保证只归还一次，然后清除售罄标记
+    private void restoreCancelled(List<VoucherOrder> orders) {
+        Set<Long> restocked = new TreeSet<>();
+        for (VoucherOrder order : orders) {
+            Long voucherId = order.getVoucherId();
+            Long result = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(
+                    COMPENSATE_SCRIPT, ReturnType.INTEGER, 3,
+                    rawKey(ORDER_CANCEL_RESTORED_KEY + order.getId()),
+                    rawKey(SECKILL_STOCK_KEY + voucherId),
+                    rawKey(SECKILL_ORDER_KEY + voucherId),
+                    rawKey(String.valueOf(SECKILL_COMPENSATE_TTL)),
+                    rawKey(order.getUserId().toString()),
+                    rawKey("1"),
+                    rawKey("-1")));
+            if (result != null && result == 1) {
+                restocked.add(voucherId);
+            }
+        }
+        for (Long voucherId : restocked) {
+            soldOutFlags.clear(voucherId);
+        }
+    }
+
+    /**
+     * 其他节点宕机后，它名下没有ACK的消息会一直留在pending-list里。
+     * 定时把空闲太久的消息转移到自己名下，由消费线程重新处理
+     */
+    @Scheduled(fixedDelay = SECKILL_ORDER_CLAIM_INTERVAL)
+    public void claimIdleOrders() {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, Range.unbounded(), SECKILL_ORDER_BATCH_SIZE);
+        List<RecordId> ids = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            //本节点的消费者自己处理自己的pending-list
+            if (!message.getConsumerName().startsWith(consumerName + "#")
+                    && message.getElapsedTimeSinceLastDelivery().toMillis() >= SECKILL_ORDER_PENDING_IDLE) {
+                ids.add(message.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        RedisStreamCommands.XClaimOptions options = RedisStreamCommands.XClaimOptions
+                .minIdle(Duration.ofMillis(SECKILL_ORDER_PENDING_IDLE))
+                .ids(ids.toArray(new RecordId[0]));
+        List<RecordId> claimed = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                connection.xClaimJustId(rawKey(SECKILL_ORDER_STREAM), SECKILL_ORDER_GROUP, consumers[0].name, options));
+        if (claimed != null && !claimed.isEmpty()) {
+            log.info("转移了{}条空闲订单消息", claimed.size());
+            consumers[0].pendingClaimed = true;
+        }
+    }
+
+    private int userLimitOf(Long voucherId) {
+        SeckillVoucherRegistry.Entry entry = voucherRegistry.get(voucherId);
+        return entry != null ? entry.userLimit : 1;
+    }
+
+    private void createGroup() {
+        try {
+            stringRedisTemplate.opsForStream().createGroup(SECKILL_ORDER_STREAM, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+        } catch (Exception e) {
+            //消费者组已经存在
+            log.debug("创建消费者组失败：{}", e.getMessage());
+        }
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
 }
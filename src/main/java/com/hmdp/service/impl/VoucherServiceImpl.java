@@ -1,17 +1,35 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopVouchers;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import com.hmdp.utils.SeckillVoucherRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_PRELOAD_INTERVAL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -21,18 +39,70 @@ import java.util.List;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillSoldOutFlags soldOutFlags;
+    @Resource
+    private SeckillVoucherRegistry voucherRegistry;
+    @Resource
+    private CacheClient cacheClient;
 
+    /**
+     * 优惠券的定义很少变化，整个列表按店铺缓存在一级缓存和Redis中，新增优惠券时删除；
+     * 只有秒杀券的库存是实时变化的，读取时用一次MGET从Redis取出实时库存覆盖，正常情况下不访问数据库
+     */
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
-        return Result.ok(vouchers);
+        // 1.查询缓存的优惠券列表，未命中时查询数据库
+        ShopVouchers shopVouchers = cacheClient.queryByIdWithPassThrough(CACHE_SHOP_VOUCHER_KEY, shopId,
+                ShopVouchers.class, id -> new ShopVouchers(getBaseMapper().queryVoucherOfShop(id)),
+                CACHE_SHOP_VOUCHER_TTL, TimeUnit.MINUTES);
+        if (shopVouchers == null || shopVouchers.getVouchers() == null) {
+            return Result.ok(new ArrayList<>());
+        }
+        // 2.一次MGET查询所有秒杀券的实时库存
+        List<Voucher> vouchers = shopVouchers.getVouchers();
+        List<String> keys = new ArrayList<>();
+        for (Voucher voucher : vouchers) {
+            if (voucher.getStock() != null) {
+                keys.add(SECKILL_STOCK_KEY + voucher.getId());
+            }
+        }
+        if (keys.isEmpty()) {
+            return Result.ok(vouchers);
+        }
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        // 3.缓存中的列表是共享的，覆盖库存之前先复制；Redis中没有库存时保留缓存时的值
+        List<Voucher> result = new ArrayList<>(vouchers.size());
+        int i = 0;
+        for (Voucher voucher : vouchers) {
+            if (voucher.getStock() == null) {
+                result.add(voucher);
+                continue;
+            }
+            String stock = stocks == null ? null : stocks.get(i);
+            i++;
+            Voucher copy = BeanUtil.copyProperties(voucher, Voucher.class);
+            if (stock != null) {
+                copy.setStock(Math.max(Integer.parseInt(stock), 0));
+            }
+            result.add(copy);
+        }
+        return Result.ok(result);
+    }
+
+    @Override
+    @Transactional
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        cacheClient.invalidateAfterCommit(CACHE_SHOP_VOUCHER_KEY + voucher.getShopId(), null);
     }
 
     @Override
@@ -46,6 +116,60 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        seckillVoucher.setRateLimit(voucher.getRateLimit());
+        seckillVoucher.setGlobalRateLimit(voucher.getGlobalRateLimit());
+        seckillVoucher.setUserLimit(voucher.getUserLimit());
         seckillVoucherService.save(seckillVoucher);
+        cacheClient.invalidateAfterCommit(CACHE_SHOP_VOUCHER_KEY + voucher.getShopId(), null);
+        // 事务提交后把库存、秒杀时间和限购数量发布到Redis和各节点的注册表，供下单时校验
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                voucherRegistry.publish(seckillVoucher, true);
+            }
+        });
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        // 1.补充数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 2.事务提交后补充Redis库存，并清除所有节点的售罄标记
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, count);
+                soldOutFlags.clear(voucherId);
+            }
+        });
+        return Result.ok();
+    }
+
+    /**
+     * 预热：把没有结束的秒杀券发布到Redis和本地注册表，保证秒杀开始时库存已经在Redis中。
+     * 启动时执行一次，之后定时执行，Redis数据丢失后也能补上；库存只在不存在时写入
+     */
+    @Scheduled(initialDelay = 0, fixedDelay = SECKILL_PRELOAD_INTERVAL)
+    public void preloadSeckillVouchers() {
+        try {
+            List<SeckillVoucher> seckillVouchers = seckillVoucherService.query()
+                    .gt("end_time", LocalDateTime.now()).list();
+            for (SeckillVoucher seckillVoucher : seckillVouchers) {
+                voucherRegistry.publish(seckillVoucher, false);
+            }
+            log.debug("预热了{}个秒杀券", seckillVouchers.size());
+        } catch (Exception e) {
+            log.error("预热秒杀券失败", e);
+        }
     }
 }
@@ -0,0 +1,437 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 紧凑的二进制编解码器，支持Shop、ShopType、Voucher以及包装它们的RedisData，其他类型仍然写JSON。
+ * 格式：[魔数][版本号][标志位][类型][数据]，数据超过阈值时用Deflate压缩。
+ * 字段按固定顺序写入，可空字段前面有一个字节标记是否为空，整数使用变长编码，时间写为UTC毫秒数。
+ * 实体类增删字段时必须提升VERSION，并保留旧版本的读取逻辑；BinaryCacheCodecTests会校验每个字段都被编码。
+ * 滚动发布时新版本的读取逻辑要先于写入生效：先按旧的版本号写入（writeVersion）发布所有节点，再提高写入的版本号；
+ * 旧节点读到不认识的版本时抛出UnsupportedVersionException，由CacheClient按未命中处理。
+ * 版本2：Shop末尾增加version。
+ * 版本3：Voucher末尾增加rateLimit、globalRateLimit。
+ * 版本4：Voucher末尾增加userLimit。
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    //JSON数据的首字节只会是'{'、'['、'"'等ASCII字符，不会与魔数冲突
+    static final byte MAGIC = (byte) 0xB7;
+    static final byte VERSION = 4;
+
+    private static final int HEADER_LENGTH = 4;
+    private static final byte FLAG_DEFLATED = 1;
+
+    private static final byte TYPE_JSON = 0;
+    private static final byte TYPE_SHOP = 1;
+    private static final byte TYPE_SHOP_TYPE = 2;
+    private static final byte TYPE_VOUCHER = 3;
+    private static final byte TYPE_REDIS_DATA = 4;
+    private static final byte TYPE_NULL = 5;
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    //超过该字节数的数据才压缩
+    private final int compressThreshold;
+    //写入的格式版本，读取支持所有不超过VERSION的版本
+    private final byte writeVersion;
+
+    public BinaryCacheCodec(int compressThreshold) {
+        this(compressThreshold, VERSION);
+    }
+
+    /**
+     * @param writeVersion 写入使用的格式版本，1到VERSION之间
+     */
+    public BinaryCacheCodec(int compressThreshold, int writeVersion) {
+        if (writeVersion < 1 || writeVersion > VERSION) {
+            throw new IllegalArgumentException("不支持的缓存编码版本：" + writeVersion);
+        }
+        this.compressThreshold = compressThreshold;
+        this.writeVersion = (byte) writeVersion;
+    }
+
+    /** 数据的格式版本比当前代码支持的新，例如滚动发布期间新节点写入的数据 */
+    public static class UnsupportedVersionException extends RuntimeException {
+        public UnsupportedVersionException(int version) {
+            super("不支持的缓存编码版本：" + version);
+        }
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        byte type = typeOf(value);
+        if (type == TYPE_JSON) {
+            return jsonCodec.encode(value);
+        }
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+            writeValue(new DataOutputStream(body), type, value, writeVersion);
+            byte[] payload = body.toByteArray();
+            byte flags = 0;
+            if (payload.length > compressThreshold) {
+                byte[] deflated = deflate(payload);
+                if (deflated.length < payload.length) {
+                    payload = deflated;
+                    flags |= FLAG_DEFLATED;
+                }
+            }
+            byte[] result = new byte[HEADER_LENGTH + payload.length];
+            result[0] = MAGIC;
+            result[1] = writeVersion;
+            result[2] = flags;
+            result[3] = type;
+            System.arraycopy(payload, 0, result, HEADER_LENGTH, payload.length);
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (!canDecode(bytes)) {
+            return jsonCodec.decode(bytes, type);
+        }
+        if (bytes[1] > VERSION) {
+            throw new UnsupportedVersionException(bytes[1]);
+        }
+        try {
+            ByteArrayInputStream body = (bytes[2] & FLAG_DEFLATED) != 0
+                    ? new ByteArrayInputStream(inflate(bytes, HEADER_LENGTH))
+                    : new ByteArrayInputStream(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+            return type.cast(readValue(new DataInputStream(body), bytes[3], bytes[1]));
+        } catch (IOException | DataFormatException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    private static byte typeOf(Object value) {
+        if (value == null) {
+            return TYPE_NULL;
+        }
+        if (value instanceof Shop) {
+            return TYPE_SHOP;
+        }
+        if (value instanceof ShopType) {
+            return TYPE_SHOP_TYPE;
+        }
+        if (value instanceof Voucher) {
+            return TYPE_VOUCHER;
+        }
+        if (value instanceof RedisData) {
+            return TYPE_REDIS_DATA;
+        }
+        return TYPE_JSON;
+    }
+
+    private void writeValue(DataOutputStream out, byte type, Object value, byte version) throws IOException {
+        switch (type) {
+            case TYPE_SHOP:
+                writeShop(out, (Shop) value, version);
+                break;
+            case TYPE_SHOP_TYPE:
+                writeShopType(out, (ShopType) value);
+                break;
+            case TYPE_VOUCHER:
+                writeVoucher(out, (Voucher) value, version);
+                break;
+            case TYPE_REDIS_DATA:
+                RedisData<?> redisData = (RedisData<?>) value;
+                writeTime(out, redisData.getExpireTime());
+                writeLong(out, redisData.getDelta());
+                Object data = redisData.getData();
+                byte dataType = typeOf(data);
+                out.writeByte(dataType);
+                if (dataType == TYPE_JSON) {
+                    // RedisData里包装的是不支持的类型时写JSON，读取时得到JSONObject，由CacheClient转换为真正的类型
+                    writeString(out, new String(jsonCodec.encode(data), StandardCharsets.UTF_8));
+                } else {
+                    writeValue(out, dataType, data, version);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private Object readValue(DataInputStream in, byte type, byte version) throws IOException {
+        switch (type) {
+            case TYPE_SHOP:
+                return readShop(in, version);
+            case TYPE_SHOP_TYPE:
+                return readShopType(in);
+            case TYPE_VOUCHER:
+                return readVoucher(in, version);
+            case TYPE_REDIS_DATA:
+                RedisData<Object> redisData = new RedisData<>();
+                redisData.setExpireTime(readTime(in));
+                redisData.setDelta(readLong(in));
+                byte dataType = in.readByte();
+                if (dataType == TYPE_JSON) {
+                    redisData.setData(JSONUtil.parse(readString(in)));
+                } else {
+                    redisData.setData(readValue(in, dataType, version));
+                }
+                return redisData;
+            case TYPE_NULL:
+                return null;
+            default:
+                throw new RuntimeException("未知的缓存数据类型：" + type);
+        }
+    }
+
+    private static void writeShop(DataOutputStream out, Shop shop, byte version) throws IOException {
+        writeLong(out, shop.getId());
+        writeString(out, shop.getName());
+        writeLong(out, shop.getTypeId());
+        writeString(out, shop.getImages());
+        writeString(out, shop.getArea());
+        writeString(out, shop.getAddress());
+        writeDouble(out, shop.getX());
+        writeDouble(out, shop.getY());
+        writeLong(out, shop.getAvgPrice());
+        writeInt(out, shop.getSold());
+        writeInt(out, shop.getComments());
+        writeInt(out, shop.getScore());
+        writeString(out, shop.getOpenHours());
+        writeTime(out, shop.getCreateTime());
+        writeTime(out, shop.getUpdateTime());
+        writeDouble(out, shop.getDistance());
+        if (version >= 2) {
+            writeLong(out, shop.getVersion());
+        }
+    }
+
+    private static Shop readShop(DataInputStream in, byte version) throws IOException {
+        Shop shop = new Shop();
+        shop.setId(readLong(in));
+        shop.setName(readString(in));
+        shop.setTypeId(readLong(in));
+        shop.setImages(readString(in));
+        shop.setArea(readString(in));
+        shop.setAddress(readString(in));
+        shop.setX(readDouble(in));
+        shop.setY(readDouble(in));
+        shop.setAvgPrice(readLong(in));
+        shop.setSold(readInt(in));
+        shop.setComments(readInt(in));
+        shop.setScore(readInt(in));
+        shop.setOpenHours(readString(in));
+        shop.setCreateTime(readTime(in));
+        shop.setUpdateTime(readTime(in));
+        shop.setDistance(readDouble(in));
+        if (version >= 2) {
+            shop.setVersion(readLong(in));
+        }
+        return shop;
+    }
+
+    private static void writeShopType(DataOutputStream out, ShopType shopType) throws IOException {
+        writeLong(out, shopType.getId());
+        writeString(out, shopType.getName());
+        writeString(out, shopType.getIcon());
+        writeInt(out, shopType.getSort());
+        writeTime(out, shopType.getCreateTime());
+        writeTime(out, shopType.getUpdateTime());
+    }
+
+    private static ShopType readShopType(DataInputStream in) throws IOException {
+        ShopType shopType = new ShopType();
+        shopType.setId(readLong(in));
+        shopType.setName(readString(in));
+        shopType.setIcon(readString(in));
+        shopType.setSort(readInt(in));
+        shopType.setCreateTime(readTime(in));
+        shopType.setUpdateTime(readTime(in));
+        return shopType;
+    }
+
+    private static void writeVoucher(DataOutputStream out, Voucher voucher, byte version) throws IOException {
+        writeLong(out, voucher.getId());
+        writeLong(out, voucher.getShopId());
+        writeString(out, voucher.getTitle());
+        writeString(out, voucher.getSubTitle());
+        writeString(out, voucher.getRules());
+        writeLong(out, voucher.getPayValue());
+        writeLong(out, voucher.getActualValue());
+        writeInt(out, voucher.getType());
+        writeInt(out, voucher.getStatus());
+        writeInt(out, voucher.getStock());
+        writeTime(out, voucher.getBeginTime());
+        writeTime(out, voucher.getEndTime());
+        writeTime(out, voucher.getCreateTime());
+        writeTime(out, voucher.getUpdateTime());
+        if (version >= 3) {
+            writeInt(out, voucher.getRateLimit());
+            writeInt(out, voucher.getGlobalRateLimit());
+        }
+        if (version >= 4) {
+            writeInt(out, voucher.getUserLimit());
+        }
+    }
+
+    private static Voucher readVoucher(DataInputStream in, byte version) throws IOException {
+        Voucher voucher = new Voucher();
+        voucher.setId(readLong(in));
+        voucher.setShopId(readLong(in));
+        voucher.setTitle(readString(in));
+        voucher.setSubTitle(readString(in));
+        voucher.setRules(readString(in));
+        voucher.setPayValue(readLong(in));
+        voucher.setActualValue(readLong(in));
+        voucher.setType(readInt(in));
+        voucher.setStatus(readInt(in));
+        voucher.setStock(readInt(in));
+        voucher.setBeginTime(readTime(in));
+        voucher.setEndTime(readTime(in));
+        voucher.setCreateTime(readTime(in));
+        voucher.setUpdateTime(readTime(in));
+        if (version >= 3) {
+            voucher.setRateLimit(readInt(in));
+            voucher.setGlobalRateLimit(readInt(in));
+        }
+        if (version >= 4) {
+            voucher.setUserLimit(readInt(in));
+        }
+        return voucher;
+    }
+
+    // ---------- 可空字段的读写，前置一个字节标记是否为空 ----------
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            writeVarLong(out, value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readVarLong(in) : null;
+    }
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        writeLong(out, value == null ? null : value.longValue());
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        Long value = readLong(in);
+        return value == null ? null : value.intValue();
+    }
+
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        writeLong(out, value == null ? null : value.toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        Long millis = readLong(in);
+        return millis == null ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //zigzag + varint，小的正数和负数都只占1~2个字节
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("压缩数据不完整");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
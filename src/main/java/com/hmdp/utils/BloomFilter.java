@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内的布隆过滤器，用于拦截一定不存在的id，防止缓存穿透。
+ * 位数组使用AtomicLongArray，put和mightContain都是无锁的，可以并发调用。
+ * 元素统一按String.valueOf(id)计算哈希，所以Long和BigInteger形式的同一个id结果一致。
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions 预计插入的元素个数
+     * @param fpp 期望的误判率，例如0.01
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(expectedInsertions, 1);
+        // 位数组大小 m = -n*ln(p) / (ln2)^2，哈希函数个数 k = m/n * ln2
+        long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bitSize = Math.max(64, (m + 63) / 64 * 64);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (bitSize / 64));
+    }
+
+    public void put(Object value) {
+        long hash = HashUtils.hash64(String.valueOf(value));
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = indexOf(h1 + i * h2);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    /** 返回false表示一定不存在；返回true表示可能存在 */
+    public boolean mightContain(Object value) {
+        long hash = HashUtils.hash64(String.valueOf(value));
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = indexOf(h1 + i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //双重哈希：用一个64位哈希拆成两个32位哈希，组合出k个哈希函数
+    private long indexOf(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % bitSize;
+    }
+}
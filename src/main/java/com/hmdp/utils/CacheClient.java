@@ -1,27 +1,139 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.io.resource.ResourceUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import cn.hutool.json.JSONObject;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
+/**
+ * 缓存工具类。
+ * 一级缓存为进程内的LRU缓存（按容量和TTL淘汰），二级缓存为Redis。
+ * 删除缓存时通过Redis的发布订阅广播失效消息，各节点收到后删除自己的一级缓存。
+ * 可以给某个key前缀注册布隆过滤器，一定不存在的id直接返回null，不会访问Redis和数据库。
+ * 写入Redis的值由CacheCodec编码，默认JSON，可以通过hmdp.cache.codec切换为二进制格式。
+ * queryByIdWithHotKey会统计访问频率，热点key自动切换为逻辑过期并常驻一级缓存，变冷后自动降级。
+ * 命中、未命中、重建次数以及Redis和数据库的耗时按key前缀记录到CacheMetrics。
+ * 写入的过期时间（包括逻辑过期时间）会按key前缀随机浮动，避免批量写入的key在同一时刻过期。
+ * 注册了版本号的key前缀，写入时通过Lua脚本比较版本号，旧数据不会覆盖新数据；更新数据时用invalidateAfterCommit删除缓存。
+ */
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+
+    /** 一级缓存中用来表示"数据库中不存在"的空值标记 */
+    private static final Object NULL_VALUE = new Object();
+    /** Redis中的空值 */
+    private static final byte[] EMPTY_VALUE = new byte[0];
+    /** 空值的版本号，比任何真实数据都旧，删除缓存时记录的版本号会拒绝之后的空值写入 */
+    private static final long NULL_VERSION = -1L;
+    private static final byte[] SET_IF_NEWER_SCRIPT = ResourceUtil.readBytes("cache_set_if_newer.lua");
+    private static final byte[] INVALIDATE_SCRIPT = ResourceUtil.readBytes("cache_invalidate.lua");
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    //指标，容器中注入的是共享的实例；不通过容器创建时使用自己的实例
+    @Resource
+    private CacheMetrics cacheMetrics = new CacheMetrics();
+
+    //逻辑过期的异步重建线程池
+    @Resource
+    private CacheRebuildExecutor rebuildExecutor;
+
+    //缓存重建的互斥锁
+    @Resource
+    private RedisLockClient lockClient;
+
+    //一级缓存：进程内LRU，超过容量或TTL都会被淘汰。TTL要比Redis短，作为失效广播丢失时的兜底
+    private final LRUCache<String, Object> localCache =
+            CacheUtil.newLRUCache(CACHE_LOCAL_MAX_SIZE, TimeUnit.SECONDS.toMillis(CACHE_LOCAL_TTL));
+    //互斥锁模式下最近一次读到的值，不过期，只在等待重建超时后作为旧值返回
+    private final LRUCache<String, Object> staleCache = CacheUtil.newLRUCache(CACHE_STALE_MAX_SIZE);
+    //按key前缀注册的版本号提取方法
+    private final Map<String, Function<Object, Long>> versionExtractors = new ConcurrentHashMap<>();
+    //删除缓存时的回调，例如删除依赖这个key的响应缓存
+    private final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
+    //延迟双删
+    private final ScheduledExecutorService doubleDeleteExecutor =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("cache-double-delete-", true));
+    //使用互斥锁模式回源的key前缀（queryByIdWithHotKey中非热点key使用）
+    private final Set<String> mutexPrefixes = ConcurrentHashMap.newKeySet();
+
+    //按key前缀注册的布隆过滤器
+    private final Map<String, BloomFilter> bloomFilters = new ConcurrentHashMap<>();
+    //正在重建中的布隆过滤器，重建期间新增的id要同时写入它，否则重建完成后会丢失
+    private final Map<String, BloomFilter> rebuildingBloomFilters = new ConcurrentHashMap<>();
+
+    //正在回源的请求，同一个key的并发未命中共享同一个CompletableFuture
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    //读取时先判断是否是二进制格式，否则按JSON解码
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+    private final CacheCodec binaryCodec = new BinaryCacheCodec(CACHE_COMPRESS_THRESHOLD);
+    //写入使用的编解码器
+    private volatile CacheCodec writeCodec = jsonCodec;
+
+    //过期时间随机浮动的比例，例如0.1表示在±10%之间浮动；按key前缀单独配置，没配置的使用默认值
+    private volatile double defaultTtlJitter = CACHE_TTL_JITTER;
+    private final Map<String, Double> ttlJitters = new ConcurrentHashMap<>();
+
+    //热点key探测
+    private final HotKeyDetector hotKeyDetector =
+            new HotKeyDetector(CACHE_HOT_KEY_SKETCH_WIDTH, CACHE_HOT_KEY_TOP_K, CACHE_HOT_KEY_THRESHOLD);
+    //常驻一级缓存的热点数据：热点key（带hot:前缀）到逻辑过期数据的映射，不会被LRU淘汰，降级或删除缓存时移除
+    private final Map<String, RedisData<?>> pinnedCache = new ConcurrentHashMap<>();
+
     //无参构造方法
     public CacheClient(){}
 
@@ -30,57 +142,805 @@ public class CacheClient {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
-    //获取简易互斥锁的方法
-    private boolean tryLock(String lockKey){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(lockKey,"1",10,TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    /**
+     * 切换写入使用的编解码器：json或binary。
+     * 读取两种格式都支持，滚动发布时先全部发布新版本，再切换为binary。
+     * @param version 二进制格式写入的版本，0表示当前代码支持的最新版本；
+     *                提升格式版本时先按旧版本写入发布所有节点，再提高这个配置
+     */
+    @Autowired
+    public void setCodec(@Value("${hmdp.cache.codec:json}") String codec,
+                         @Value("${hmdp.cache.codec-version:0}") int version){
+        if (!"binary".equalsIgnoreCase(codec)) {
+            this.writeCodec = jsonCodec;
+            return;
+        }
+        this.writeCodec = version <= 0 ? binaryCodec : new BinaryCacheCodec(CACHE_COMPRESS_THRESHOLD, version);
+    }
+
+    //使用互斥锁模式的key前缀，逗号分隔
+    @Value("${hmdp.cache.mutex-prefixes:}")
+    public void setMutexPrefixes(String prefixes){
+        mutexPrefixes.addAll(StrUtil.split(prefixes, ',', true, true));
+    }
+
+    @Value("${hmdp.cache.ttl-jitter.default:" + CACHE_TTL_JITTER + "}")
+    public void setDefaultTtlJitter(double ratio){
+        this.defaultTtlJitter = clampJitter(ratio);
+    }
+
+    //按前缀配置，格式为SpEL的map，例如{'cache:shop:': 0.2}
+    @Value("#{${hmdp.cache.ttl-jitter.prefixes:{:}}}")
+    public void setTtlJitters(Map<String, Double> jitters){
+        jitters.forEach(this::setTtlJitter);
+    }
+
+    public void setTtlJitter(String keyPrefix, double ratio){
+        ttlJitters.put(keyPrefix, clampJitter(ratio));
+    }
+
+    //浮动比例限制在0到0.5之间，保证逻辑过期时间总是小于热点key的物理过期时间（两倍）
+    private static double clampJitter(double ratio){
+        return Math.max(0, Math.min(ratio, 0.5));
+    }
+
+    //在time的基础上随机浮动，返回毫秒
+    private long jitteredTtlMillis(String key, Long time, TimeUnit unit){
+        long millis = unit.toMillis(time);
+        String prefix = CacheMetrics.prefixOf(baseKeyOf(key));
+        double ratio = ttlJitters.getOrDefault(prefix, defaultTtlJitter);
+        long range = (long) (millis * ratio);
+        if (range <= 0) {
+            return millis;
+        }
+        return Math.max(1, millis + ThreadLocalRandom.current().nextLong(-range, range + 1));
+    }
+
+    private byte[] encode(Object value){
+        return writeCodec.encode(value);
+    }
+
+    //返回null表示不认识这个格式版本（例如滚动发布期间新节点写入的数据），调用方按未命中处理，回源数据库
+    private <T> T decode(byte[] bytes, Class<T> type){
+        if (!binaryCodec.canDecode(bytes)) {
+            return jsonCodec.decode(bytes, type);
+        }
+        try {
+            return binaryCodec.decode(bytes, type);
+        } catch (BinaryCacheCodec.UnsupportedVersionException e) {
+            log.debug("缓存编码版本不支持，按未命中处理：{}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] rawKey(String key){
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] rawNumber(long number){
+        return Long.toString(number).getBytes(StandardCharsets.UTF_8);
+    }
+
+    //热点格式的key对应的原始key
+    private static String baseKeyOf(String key){
+        return key.startsWith(CACHE_HOT_KEY_PREFIX) ? key.substring(CACHE_HOT_KEY_PREFIX.length()) : key;
+    }
+
+    //热点格式的key和原始key共用一个版本号key
+    private static String versionKeyOf(String key){
+        return CACHE_VERSION_KEY + baseKeyOf(key);
+    }
+
+    /**
+     * 注册某个key前缀的版本号，例如数据库中的version字段。
+     * 注册后写入这个前缀的缓存时会比较版本号，不会用旧数据覆盖新数据。
+     */
+    public <R> void registerVersion(String keyPrefix, Class<R> type, Function<R, Long> versionOf){
+        versionExtractors.put(keyPrefix, value -> versionOf.apply(type.cast(value)));
+    }
+
+    //没有注册版本号的前缀返回null
+    private Long versionOf(String key, Object value){
+        Function<Object, Long> extractor = versionExtractors.get(CacheMetrics.prefixOf(baseKeyOf(key)));
+        if (extractor == null) {
+            return null;
+        }
+        if (value instanceof RedisData) {
+            value = ((RedisData<?>) value).getData();
+        }
+        if (value == null) {
+            return NULL_VERSION;
+        }
+        Long version = extractor.apply(value);
+        return version == null ? 0L : version;
+    }
+
+    //按字节读取，编解码由CacheCodec负责
+    private byte[] getRaw(String key){
+        long start = System.nanoTime();
+        try {
+            return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+        } finally {
+            cacheMetrics.cacheOfKey(key).redis.recordSince(start);
+        }
+    }
+
+    private boolean setRaw(String key, Object value, byte[] bytes, Long time, TimeUnit unit){
+        return setRaw(key, value, bytes, time, unit, null);
+    }
+
+    private boolean setRaw(String key, Object value, byte[] bytes, Long time, TimeUnit unit, RedisLock fence){
+        return setRaw(key, value, bytes, Expiration.milliseconds(jitteredTtlMillis(key, time, unit)), fence);
+    }
+
+    private boolean setRaw(String key, Object value, byte[] bytes, Expiration expiration){
+        return setRaw(key, value, bytes, expiration, null);
+    }
+
+    //写入Redis，value是编码前的值，用于取版本号。fence是当前线程持有的重建锁，没有持有锁时为null。
+    //返回false表示缓存中已经是更新的版本，或者锁已经不属于当前线程，没有写入
+    private boolean setRaw(String key, Object value, byte[] bytes, Expiration expiration, RedisLock fence){
+        long start = System.nanoTime();
+        try {
+            return BooleanUtil.isTrue(stringRedisTemplate.execute(
+                    (RedisCallback<Boolean>) connection -> writeRaw(connection, key, value, bytes, expiration, fence)));
+        } finally {
+            cacheMetrics.cacheOfKey(key).redis.recordSince(start);
+        }
+    }
+
+    private boolean writeRaw(RedisConnection connection, String key, Object value, byte[] bytes, Expiration expiration){
+        return writeRaw(connection, key, value, bytes, expiration, null);
+    }
+
+    //注册了版本号的前缀、或者持有重建锁的写入用Lua脚本，其余直接SET。pipeline中eval的结果拿不到，按写入成功处理
+    private boolean writeRaw(RedisConnection connection, String key, Object value, byte[] bytes,
+                             Expiration expiration, RedisLock fence){
+        Long version = versionOf(key, value);
+        if (version == null && fence == null) {
+            connection.set(rawKey(key), bytes, expiration, RedisStringCommands.SetOption.upsert());
+            return true;
+        }
+        long ttl = expiration.isPersistent() ? 0 : expiration.getExpirationTimeInMilliseconds();
+        byte[] rawVersion = version == null ? new byte[0] : rawNumber(version);
+        byte[] extraTtl = rawNumber(TimeUnit.MINUTES.toMillis(CACHE_VERSION_EXTRA_TTL));
+        Long result = fence == null
+                ? connection.eval(SET_IF_NEWER_SCRIPT, ReturnType.INTEGER, 2,
+                        rawKey(key), rawKey(versionKeyOf(key)), rawVersion, bytes, rawNumber(ttl), extraTtl)
+//                持有锁时带上fencing token，由脚本和锁中记录的token比较
+                : connection.eval(SET_IF_NEWER_SCRIPT, ReturnType.INTEGER, 3,
+                        rawKey(key), rawKey(versionKeyOf(key)), rawKey(fence.getName()),
+                        rawVersion, bytes, rawNumber(ttl), extraTtl, rawNumber(fence.getFencingToken()));
+        if (result != null && result == 0) {
+            cacheMetrics.cacheOfKey(key).versionConflicts.increment();
+            log.debug("缓存中已有更新的版本，放弃写入：{} version={}", key, version);
+            return false;
+        }
+        if (result != null && result < 0) {
+            cacheMetrics.cacheOfKey(key).fenceRejections.increment();
+            log.warn("重建锁已经过期或被其他请求获取，放弃写入：{} token={}", key, fence.getFencingToken());
+            return false;
+        }
+        return true;
+    }
+
+    //回源数据库并记录耗时
+    private <R,ID> R loadFromDb(String key, ID id, Function<ID,R> dbFallBack){
+        long start = System.nanoTime();
+        try {
+            return dbFallBack.apply(id);
+        } finally {
+            cacheMetrics.cacheOfKey(key).db.recordSince(start);
+        }
+    }
+
+    //一级缓存的过期时间不能超过Redis中的过期时间
+    private long localTtlMillis(Long time, TimeUnit unit){
+        return Math.min(unit.toMillis(time), TimeUnit.SECONDS.toMillis(CACHE_LOCAL_TTL));
+    }
+
+    //删除缓存：删除Redis（包括热点格式的key），删除本地一级缓存，并广播给其他节点删除它们的一级缓存
+    public void invalidate(String key){
+        invalidate(key, null);
+    }
+
+    /**
+     * 删除缓存，并记录数据更新后的版本号，之后版本号更旧的写入（并发回源读到的旧数据）都会被拒绝
+     * @param version 更新后的版本号，为null时只删除
+     */
+    public void invalidate(String key, Long version){
+        if (version == null) {
+            stringRedisTemplate.delete(Arrays.asList(key, CACHE_HOT_KEY_PREFIX + key));
+        } else {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.eval(
+                    INVALIDATE_SCRIPT, ReturnType.INTEGER, 3,
+                    rawKey(versionKeyOf(key)), rawKey(key), rawKey(CACHE_HOT_KEY_PREFIX + key),
+                    rawNumber(version), rawNumber(TimeUnit.MINUTES.toMillis(CACHE_VERSION_EXTRA_TTL))));
+        }
+        localCache.remove(key);
+        staleCache.remove(key);
+        pinnedCache.remove(CACHE_HOT_KEY_PREFIX + key);
+        notifyInvalidated(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 在事务提交之后删除缓存，并延迟CACHE_DOUBLE_DELETE_DELAY毫秒再删除一次。
+     * 事务提交前删除的话，并发的请求可能在提交前又把旧数据读进缓存；
+     * 延迟的第二次删除用来清理提交前已经开始回源、提交后才写回的旧数据（没有注册版本号的前缀主要靠它）。
+     * 没有事务时立即执行。
+     */
+    public void invalidateAfterCommit(String key, Long version){
+        Runnable action = () -> {
+            invalidate(key, version);
+            doubleDeleteExecutor.schedule(() -> {
+                try {
+                    invalidate(key);
+                } catch (Exception e) {
+                    log.error("延迟双删失败：{}", key, e);
+                }
+            }, CACHE_DOUBLE_DELETE_DELAY, TimeUnit.MILLISECONDS);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    //收到其他节点（也包括自己）广播的失效消息，删除一级缓存
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        localCache.remove(key);
+        staleCache.remove(key);
+        pinnedCache.remove(CACHE_HOT_KEY_PREFIX + key);
+        notifyInvalidated(key);
+    }
+
+    /** 注册删除缓存时的回调，本节点删除和收到其他节点的广播都会调用 */
+    public void addInvalidationListener(Consumer<String> listener){
+        invalidationListeners.add(listener);
+    }
+
+    private void notifyInvalidated(String key){
+        for (Consumer<String> listener : invalidationListeners) {
+            try {
+                listener.accept(key);
+            } catch (Exception e) {
+                log.error("缓存删除回调失败：{}", key, e);
+            }
+        }
+    }
+
+    /** 记录一次没有经过queryByIdWithHotKey的访问（例如命中了响应缓存），让热点探测仍然能看到这个key */
+    public void recordAccess(String key){
+        hotKeyDetector.record(key);
+    }
+
+    /** 当前访问最多的key及其访问次数（衰减后的近似值） */
+    public Map<String, Long> getHotKeys(){
+        return hotKeyDetector.topK();
+    }
+
+    /** 定时衰减访问计数，变冷的热点key降级，移除常驻的一级缓存 */
+    @Scheduled(fixedRate = CACHE_HOT_KEY_DECAY_INTERVAL)
+    public void decayHotKeys(){
+        for (String key : hotKeyDetector.decay()) {
+            pinnedCache.remove(CACHE_HOT_KEY_PREFIX + key);
+            log.debug("热点key降级：{}", key);
+        }
+    }
+
+    /**
+     * 重建某个key前缀的布隆过滤器，全部id加载完成后整体替换旧的过滤器。
+     * 定期重建可以清除已删除的id，并在数据量增长后重新按新的容量控制误判率。
+     */
+    public void rebuildBloomFilter(String keyPrefix, long expectedInsertions, Supplier<Collection<?>> idLoader){
+        BloomFilter filter = new BloomFilter(expectedInsertions, CACHE_BLOOM_FPP);
+        rebuildingBloomFilters.put(keyPrefix, filter);
+        try {
+            for (Object id : idLoader.get()) {
+                filter.put(id);
+            }
+            bloomFilters.put(keyPrefix, filter);
+        } finally {
+            rebuildingBloomFilters.remove(keyPrefix);
+        }
     }
 
-    //释放简易锁
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
+    //新增数据后要把id加入布隆过滤器（先写重建中的，再写当前的，保证不会漏掉）
+    public void addToBloomFilter(String keyPrefix, Object id){
+        BloomFilter rebuilding = rebuildingBloomFilters.get(keyPrefix);
+        if (rebuilding != null) {
+            rebuilding.put(id);
+        }
+        BloomFilter filter = bloomFilters.get(keyPrefix);
+        if (filter != null) {
+            filter.put(id);
+        }
+    }
+
+    //没有注册布隆过滤器的前缀一律放行
+    private boolean mightContain(String keyPrefix, Object id){
+        BloomFilter filter = bloomFilters.get(keyPrefix);
+        return filter == null || filter.mightContain(id);
     }
 
     //set方法
     public void set(String key, Object value, Long time, TimeUnit timeUnit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,timeUnit);
+        setRaw(key, value, encode(value), time, timeUnit);
     }
 
     //逻辑过期的set方法
     public <T> void setWithLogicalExpireTime(String key,T value,Long time,TimeUnit timeunit){
+        setWithLogicalExpireTime(key, value, time, timeunit, null);
+    }
+
+    //逻辑过期的set方法，同时记录本次重建耗时（毫秒），供提前刷新判断使用
+    public <T> void setWithLogicalExpireTime(String key,T value,Long time,TimeUnit timeunit,Long delta){
+        writeLogical(key, value, time, timeunit, delta);
+    }
+
+    private <T> RedisData<T> writeLogical(String key,T value,Long time,TimeUnit timeunit,Long delta){
+        return writeLogical(key, value, time, timeunit, delta, null);
+    }
+
+    //返回null表示缓存中已经是更新的版本（或者fence对应的锁已经丢失），没有写入
+    private <T> RedisData<T> writeLogical(String key,T value,Long time,TimeUnit timeunit,Long delta,RedisLock fence){
         RedisData<T> redisData = new RedisData<>();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeunit.toSeconds(time)));
+        redisData.setExpireTime(logicalExpireTime(key, time, timeunit));
+        redisData.setDelta(delta);
         //写入redis
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(value));
+        if (!setRaw(key, redisData, encode(redisData), physicalTtlOf(key, time, timeunit), fence)) {
+            //缓存中已经是更新的版本，这份数据不能再使用
+            return null;
+        }
+        //常驻一级缓存的热点数据同步更新
+        if (pinnedCache.containsKey(key)) {
+            pinnedCache.put(key, redisData);
+        }
+        return redisData;
+    }
+
+    private LocalDateTime logicalExpireTime(String key, Long time, TimeUnit unit){
+        return LocalDateTime.now().plus(jitteredTtlMillis(key, time, unit), ChronoUnit.MILLIS);
+    }
+
+    //逻辑过期的数据本身不设置TTL；自动晋升的热点key设置为逻辑过期时间的两倍，降级后不再访问的数据会自动清除
+    private static Expiration physicalTtlOf(String key, Long time, TimeUnit unit){
+        return key.startsWith(CACHE_HOT_KEY_PREFIX) ? Expiration.from(time * 2, unit) : Expiration.persistent();
+    }
+
+    /**
+     * 缓存预热：把一批热点数据按逻辑过期的格式写入Redis。
+     * id按批次用一次IN查询回源数据库，每批再用一次pipeline写入，批次之间并行执行，最多CACHE_WARM_UP_PARALLELISM个线程。
+     * @return 写入的条数
+     */
+    public <R,ID> int warmUpWithLogicalExpire(
+            String keyPrefix, Collection<ID> ids, Function<Collection<ID>, Map<ID,R>> dbBatchFallback,
+            Long time, TimeUnit unit){
+        long begin = System.currentTimeMillis();
+        List<List<ID>> batches = CollUtil.split(new ArrayList<>(new LinkedHashSet<>(ids)), CACHE_WARM_UP_BATCH_SIZE);
+        if (batches.isEmpty()) {
+            return 0;
+        }
+        AtomicInteger finishedBatches = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(CACHE_WARM_UP_PARALLELISM, batches.size()), new NamedThreadFactory("cache-warm-up-", true));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<ID> batch : batches) {
+                futures.add(pool.submit(() -> {
+                    long start = System.currentTimeMillis();
+                    Map<ID,R> loaded = dbBatchFallback.apply(batch);
+                    //整批回源的耗时作为每个key的重建耗时，供XFetch提前刷新使用
+                    long delta = System.currentTimeMillis() - start;
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        for (Map.Entry<ID,R> entry : loaded.entrySet()) {
+                            String key = keyPrefix + entry.getKey();
+                            RedisData<R> redisData = new RedisData<>();
+                            redisData.setData(entry.getValue());
+                            //每个key的逻辑过期时间单独浮动，同一批预热的key不会同时过期
+                            redisData.setExpireTime(logicalExpireTime(key, time, unit));
+                            redisData.setDelta(delta);
+                            writeRaw(connection, key, redisData, encode(redisData), physicalTtlOf(key, time, unit));
+                        }
+                        return null;
+                    });
+                    written.addAndGet(loaded.size());
+                    log.info("缓存预热进度：{} {}/{}批，已写入{}条",
+                            keyPrefix, finishedBatches.incrementAndGet(), batches.size(), written.get());
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("缓存预热批次失败：{}", keyPrefix, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        log.info("缓存预热完成：{} 共{}个id，写入{}条，耗时{}ms",
+                keyPrefix, ids.size(), written.get(), System.currentTimeMillis() - begin);
+        return written.get();
+    }
+
+    /**
+     * 预热热点key：写入热点格式的key，并直接晋升为热点，不需要等访问次数达到阈值
+     */
+    public <R,ID> int warmUpHotKeys(
+            String keyPrefix, Collection<ID> ids, Function<Collection<ID>, Map<ID,R>> dbBatchFallback,
+            Long time, TimeUnit unit){
+        int written = warmUpWithLogicalExpire(CACHE_HOT_KEY_PREFIX + keyPrefix, ids, dbBatchFallback, time, unit);
+        for (ID id : ids) {
+            hotKeyDetector.promote(keyPrefix + id);
+        }
+        return written;
+    }
+
+    /**
+     * 根据ID查询（自动识别热点版本）。
+     * 普通key走queryByIdWithPassThrough；访问频率达到阈值的key晋升为热点，
+     * 改为逻辑过期格式存到单独的key（hot:前缀）中，避免和普通格式混在一起，并常驻一级缓存；变冷后自动降级。
+     */
+    public <R,ID> R queryByIdWithHotKey(
+            String keyPrefix , ID id, Class<R> type , Function<ID,R> dbFallBack,
+            Long time , TimeUnit unit){
+        String key = keyPrefix + id;
+        if (!hotKeyDetector.record(key)) {
+            return mutexPrefixes.contains(keyPrefix)
+                    ? queryByIdWithMutex(keyPrefix, id, type, dbFallBack, time, unit)
+                    : queryByIdWithPassThrough(keyPrefix, id, type, dbFallBack, time, unit);
+        }
+        if (!mightContain(keyPrefix, id)) {
+            return null;
+        }
+        String hotKey = CACHE_HOT_KEY_PREFIX + key;
+//        1.常驻的一级缓存没有过期、也不需要提前刷新，直接返回
+        RedisData<?> pinned = pinnedCache.get(hotKey);
+        if (pinned != null && !shouldRefreshEarly(pinned)) {
+            CacheMetrics.CacheStats stats = cacheMetrics.cache(CACHE_HOT_KEY_PREFIX + keyPrefix);
+            stats.hits.increment();
+            stats.localHits.increment();
+            return type.cast(pinned.getData());
+        }
+//        2.常驻数据不存在、已经逻辑过期或即将过期，读Redis，可能已经被其他节点重建
+        RedisData<R> redisData = getRedisData(hotKey, type);
+        if (redisData == null) {
+//            刚晋升为热点，或者被更新操作删除了：同步加载一次，并发请求合并为一次
+            redisData = singleFlight(hotKey, () -> loadHotValue(hotKey, id, dbFallBack, time, unit));
+        } else if (shouldRefreshEarly(redisData)) {
+//            Redis中也已经过期或即将过期（XFetch）：异步重建，先返回旧数据
+            rebuildAsync(hotKey, id, dbFallBack, time, unit);
+        }
+        pinnedCache.put(hotKey, redisData);
+        return redisData.getData();
+    }
+
+    private <R,ID> RedisData<R> loadHotValue(String hotKey, ID id, Function<ID,R> dbFallBack, Long time, TimeUnit unit){
+        long start = System.currentTimeMillis();
+        R r = loadFromDb(hotKey, id, dbFallBack);
+        RedisData<R> redisData = writeLogical(hotKey, r, time, unit, System.currentTimeMillis() - start);
+        if (redisData == null) {
+//            读到的数据已被并发更新：本次照常返回，但标记为已过期，下次访问重新读取
+            redisData = new RedisData<>();
+            redisData.setData(r);
+            redisData.setExpireTime(LocalDateTime.now());
+        }
+        return redisData;
     }
 
     // 根据ID查询店铺（返回空值防穿透版本）的方法queryByIdWIthPassThrough
+    // 同一个JVM内同一个key的并发未命中只会有一个请求回源数据库
     public <R,ID> R queryByIdWithPassThrough(
             String keyPrefix , ID id, Class<R> type , Function<ID,R> dbFallBack,
             Long time , TimeUnit unit){
+//        布隆过滤器判断一定不存在的id，直接返回，不访问Redis和数据库，也不会写入空值
+        if (!mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
-//        1.查询Redis中是否存在；
-        String json = stringRedisTemplate.opsForValue().get(key);
-//        2.Redis中如果存在，则直接返回；若不存在，则查数据库。
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json,type);
+//        0.先查一级缓存，命中则不需要访问Redis，也不需要反序列化
+        Object local = localCache.get(key, false);
+        if (local != null) {
+            recordLocalHit(keyPrefix, local);
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+//        1.查询Redis中是否存在，存在（包括空值）则直接返回；
+        Object cached = getFromRedis(key, type, time, unit);
+//        2.不存在，则合并同一个key的并发请求，只有一个请求去查数据库，其余请求等待它的结果
+        if (cached == null) {
+            cached = singleFlight(key, () -> {
+                Object again = getFromRedis(key, type, time, unit);
+                return again != null ? again : loadAndCache(key, id, dbFallBack, time, unit);
+            });
         }
+        return cached == NULL_VALUE ? null : type.cast(cached);
+    }
 
-//        在Redis中，如果是空值也会被isNotBlank方法判定为false，进入执行查数据库的流程。所以此处要加入空值判断。
-        if (json != null){
+    /**
+     * 根据ID查询（互斥锁解决缓存击穿版本）。
+     * 在queryByIdWithPassThrough的基础上，回源前还要获取Redis互斥锁，让多个节点之间也只有一个请求回源。
+     * 没拿到锁的请求等待锁被释放，锁释放脚本会通过发布订阅广播，等待者收到后再读缓存，不轮询也不递归；
+     * 等待超时则返回最近一次读到的旧值，没有旧值才自己回源。
+     */
+    public <R,ID> R queryByIdWithMutex(
+            String keyPrefix , ID id, Class<R> type , Function<ID,R> dbFallBack,
+            Long time , TimeUnit unit){
+        if (!mightContain(keyPrefix, id)) {
             return null;
         }
-        R r = dbFallBack.apply(id);
+        String key = keyPrefix + id;
+        Object local = localCache.get(key, false);
+        if (local != null) {
+            recordLocalHit(keyPrefix, local);
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+        Object cached = getFromRedis(key, type, time, unit);
+        if (cached == null) {
+            cached = singleFlight(key, () -> loadWithLock(key, id, type, dbFallBack, time, unit));
+        }
+        return cached == NULL_VALUE ? null : type.cast(cached);
+    }
+
+    private void recordLocalHit(String keyPrefix, Object local){
+        CacheMetrics.CacheStats stats = cacheMetrics.cache(keyPrefix);
+        if (local == NULL_VALUE) {
+            stats.nullHits.increment();
+        } else {
+            stats.hits.increment();
+        }
+        stats.localHits.increment();
+    }
+
+    //从Redis中读取并放入一级缓存。返回null表示Redis中不存在，返回NULL_VALUE表示命中了空值缓存
+    private Object getFromRedis(String key, Class<?> type, Long time, TimeUnit unit){
+        byte[] bytes = getRaw(key);
+        CacheMetrics.CacheStats stats = cacheMetrics.cacheOfKey(key);
+        Object r = bytes != null && bytes.length > 0 ? decode(bytes, type) : null;
+        if (r != null) {
+            stats.hits.increment();
+            localCache.put(key, r, localTtlMillis(time, unit));
+            staleCache.put(key, r);
+            return r;
+        }
+//        在Redis中，如果是空值，长度为0但不是null，所以此处要加入空值判断。
+        if (bytes != null && bytes.length == 0) {
+            stats.nullHits.increment();
+            localCache.put(key, NULL_VALUE, localTtlMillis(CACHE_NULL_TTL, TimeUnit.MINUTES));
+            return NULL_VALUE;
+        }
+        stats.misses.increment();
+        return null;
+    }
+
+    //查询数据库并写回Redis和一级缓存，数据库中不存在时返回NULL_VALUE
+    private <R,ID> Object loadAndCache(String key, ID id, Function<ID,R> dbFallBack, Long time, TimeUnit unit){
+        return loadAndCache(key, id, dbFallBack, time, unit, null);
+    }
+
+    //fence是当前线程持有的重建锁，写入时检查锁是否仍然属于自己
+    private <R,ID> Object loadAndCache(String key, ID id, Function<ID,R> dbFallBack, Long time, TimeUnit unit,
+                                       RedisLock fence){
+        R r = loadFromDb(key, id, dbFallBack);
         if (r == null) {
 //            Cache和DB都没有的数据，则做一个空值到Redis中，防止缓存穿透。
-            stringRedisTemplate.opsForValue().set(key,"",RedisConstants.CACHE_NULL_TTL,TimeUnit.MINUTES);
-            return null;
+//            注册了布隆过滤器后，只有被误判的id才会走到这里。
+//            版本号比缓存中记录的旧（读到的是被并发更新之前的数据）时不会写入，也不放入一级缓存
+            if (setRaw(key, null, EMPTY_VALUE, RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES, fence)) {
+                localCache.put(key, NULL_VALUE, localTtlMillis(CACHE_NULL_TTL, TimeUnit.MINUTES));
+            }
+            return NULL_VALUE;
+        }
+        if (setRaw(key, r, encode(r), time, unit, fence)) {
+            localCache.put(key, r, localTtlMillis(time, unit));
+            staleCache.put(key, r);
         }
-        this.set(key,r,time,unit);
         return r;
     }
 
+    //获取Redis互斥锁后回源；没获取到就等待持有锁的请求释放锁（锁释放脚本会广播），再看缓存
+    private <R,ID> Object loadWithLock(String key, ID id, Class<R> type, Function<ID,R> dbFallBack,
+                                       Long time, TimeUnit unit){
+        String lockKey = CACHE_LOCK_KEY + key;
+        RedisLock lock = lockClient.getLock(lockKey);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CACHE_LOCK_WAIT_TIME);
+        while (true) {
+            if (lock.tryLock()) {
+                try {
+//                    获取锁之后要再检查一次缓存，可能在等待期间已经被重建
+                    Object again = getFromRedis(key, type, time, unit);
+                    return again != null ? again : loadAndCache(key, id, dbFallBack, time, unit, lock);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            cacheMetrics.cacheOfKey(key).lockFailures.increment();
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+//                只等锁被释放，不抢锁，同一时刻释放唤醒的请求并发地读缓存
+                lock.awaitRelease(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            Object again = getFromRedis(key, type, time, unit);
+            if (again != null) {
+                return again;
+            }
+//            被唤醒了但缓存仍不存在（例如持有锁的请求回源失败），在剩余时间内重新抢锁
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+//        等待超时，说明持有锁的节点太慢或已经宕机：有旧值先返回旧值，没有再自己回源
+        Object stale = staleCache.get(key, false);
+        if (stale != null) {
+            cacheMetrics.cacheOfKey(key).staleHits.increment();
+            return stale;
+        }
+        return loadAndCache(key, id, dbFallBack, time, unit);
+    }
+
+    /**
+     * 单飞：同一个key同时只有一个线程执行loader，其余线程共享它的结果。
+     * 只在缓存未命中时进入，不影响命中时的延迟。
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T singleFlight(String key, Supplier<T> loader){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            try {
+                return (T) inFlight.get(CACHE_LOAD_WAIT_TIME, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+            } catch (TimeoutException e) {
+//                等待超时，不再等待正在执行的请求，自己执行一次
+                return loader.get();
+            }
+        }
+        try {
+            T result = loader.get();
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    /**
+     * 批量版本的queryByIdWithPassThrough：
+     * 一级缓存之外的id用一次MGET查询Redis，未命中的id用一次IN查询回源数据库，
+     * 再用一次pipeline把查到的数据和空值一起写回Redis。
+     * @param dbBatchFallback 根据一批id查询数据库，返回id到数据的映射，不存在的id不放入map即可
+     * @return 按传入顺序排列的id到数据的映射，不存在的id不会出现在结果中
+     */
+    public <R,ID> Map<ID,R> queryByIdsWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID,R>> dbBatchFallback,
+            Long time, TimeUnit unit){
+        CacheMetrics.CacheStats stats = cacheMetrics.cache(keyPrefix);
+        Map<ID,R> found = new HashMap<>();
+        List<ID> redisIds = new ArrayList<>();
+        List<byte[]> redisKeys = new ArrayList<>();
+//        1.过滤掉布隆过滤器判断一定不存在的id，并先查一级缓存
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!mightContain(keyPrefix, id)) {
+                continue;
+            }
+            String key = keyPrefix + id;
+            Object local = localCache.get(key, false);
+            if (local == null) {
+                redisIds.add(id);
+                redisKeys.add(rawKey(key));
+            } else {
+                recordLocalHit(keyPrefix, local);
+                if (local != NULL_VALUE) {
+                    found.put(id, type.cast(local));
+                }
+            }
+        }
+//        2.一次MGET查询Redis，空字符串是空值缓存，直接跳过
+        List<ID> missIds = new ArrayList<>();
+        if (!redisKeys.isEmpty()) {
+            byte[][] keys = redisKeys.toArray(new byte[0][]);
+            long start = System.nanoTime();
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+            stats.redis.recordSince(start);
+            for (int i = 0; i < redisIds.size(); i++) {
+                byte[] bytes = values == null ? null : values.get(i);
+                String key = keyPrefix + redisIds.get(i);
+                R r = bytes != null && bytes.length > 0 ? decode(bytes, type) : null;
+                if (r != null) {
+                    stats.hits.increment();
+                    localCache.put(key, r, localTtlMillis(time, unit));
+                    found.put(redisIds.get(i), r);
+                } else if (bytes != null && bytes.length == 0) {
+                    stats.nullHits.increment();
+                    localCache.put(key, NULL_VALUE, localTtlMillis(CACHE_NULL_TTL, TimeUnit.MINUTES));
+                } else {
+                    stats.misses.increment();
+                    missIds.add(redisIds.get(i));
+                }
+            }
+        }
+//        3.未命中的id一次性回源数据库，再用pipeline批量写回Redis（数据库也没有的写入空值）
+        if (!missIds.isEmpty()) {
+            long start = System.nanoTime();
+            Map<ID,R> loaded = dbBatchFallback.apply(missIds);
+            stats.db.recordSince(start);
+            Map<String,byte[]> values = new LinkedHashMap<>();
+            Map<String,R> loadedByKey = new HashMap<>();
+            for (ID id : missIds) {
+                String key = keyPrefix + id;
+                R r = loaded == null ? null : loaded.get(id);
+                if (r == null) {
+                    values.put(key, EMPTY_VALUE);
+                    localCache.put(key, NULL_VALUE, localTtlMillis(CACHE_NULL_TTL, TimeUnit.MINUTES));
+                } else {
+                    values.put(key, encode(r));
+                    loadedByKey.put(key, r);
+                    localCache.put(key, r, localTtlMillis(time, unit));
+                    found.put(id, r);
+                }
+            }
+            start = System.nanoTime();
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<String,byte[]> entry : values.entrySet()) {
+                    boolean isNull = entry.getValue().length == 0;
+                    long ttl = isNull
+                            ? jitteredTtlMillis(entry.getKey(), CACHE_NULL_TTL, TimeUnit.MINUTES)
+                            : jitteredTtlMillis(entry.getKey(), time, unit);
+                    writeRaw(connection, entry.getKey(), loadedByKey.get(entry.getKey()), entry.getValue(),
+                            Expiration.milliseconds(ttl));
+                }
+                return null;
+            });
+//            版本号比缓存中旧、被脚本拒绝写入的（返回0），也不能留在一级缓存里
+            int index = 0;
+            for (String key : values.keySet()) {
+                Object result = index < results.size() ? results.get(index) : null;
+                index++;
+                if (result instanceof Long && (Long) result == 0) {
+                    stats.versionConflicts.increment();
+                    localCache.remove(key);
+                }
+            }
+            stats.redis.recordSince(start);
+        }
+//        4.按传入顺序组装结果
+        Map<ID,R> result = new LinkedHashMap<>();
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
 
     //TODO 根据ID查询店铺（使用逻辑过期法解决缓存击穿版本）的方法queryByIdWithMutex
     public <R,ID> R queryByIdWithLogicalExpire(
@@ -89,43 +949,81 @@ public class CacheClient {
 //        1.从Redis中获取缓存
         String key = keyPrefix + id;
 //        2.判断在Redis中是否存在，不存在则返回null，存在则进入过期判断
-        String json = stringRedisTemplate.opsForValue().get(key);
 //        为什么Redis中不存在就直接返回null，而不是查数据库呢？因为在缓存击穿中，热点key往往是在预热中手动存入Redis的，如果没有说明就不是热点key。
 //        如果不存在就直接进行查库，那就是直接被击穿了，做这些方法就失去了意义。
 //        3.不存在，查询未命中，返回null
-        if (StrUtil.isBlank(json)) {
+        RedisData<R> redisData = getRedisData(key, type);
+        if (redisData == null) {
             return null;
         }
-//        4.命中，需要先把json反序列化
-        RedisData<R> redisData = JSONUtil.toBean(json,RedisData.class);
+//        4.命中，判断是否过期，或者按XFetch算法需要提前刷新
         R r = redisData.getData();
-        LocalDateTime expireTime = redisData.getExpireTime();
-//        5.判断是否过期
-//        5.1 没有过期，直接返回对象
-        if (expireTime.isAfter(LocalDateTime.now())){
+//        5.1 不需要刷新，直接返回对象
+        if (!shouldRefreshEarly(redisData)){
             return r;
         }
-//        5.2 已经过期，则进入缓存重建。
-//        6.缓存重建
-//        6.1获取简易互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean getLock = tryLock(lockKey);
-//        6.2 判断锁是否获取成功
-        if (getLock == true){
-//            6.3 成功，则开启独立线程，实现缓存重建
-            SimpleThreadPool.CACHE_REBUILD_EXECUTOR.submit(() -> {
-                //重建缓存
-                try {
-                    R r1 = dbFallBack.apply(id);
-                    this.setWithLogicalExpireTime(key,r1,time,timeUnit);
-                }catch (Exception e){
-                    throw new RuntimeException(e);
-                }finally {
-                    //释放锁
-                    unlock(lockKey);
-                }
-            });
-        }
+//        5.2 已经过期或提前刷新，则开启独立线程进行缓存重建，当前请求返回旧数据
+        rebuildAsync(key, id, dbFallBack, time, timeUnit);
         return r;
     }
+
+    /**
+     * XFetch判断：按 now - delta * beta * ln(random) >= expireTime 决定是否提前重建，
+     * delta是上一次重建的耗时，越接近过期、重建越慢，触发概率越高。
+     * 这样热点key会在过期前被某个请求平滑地刷新，各节点也不会在同一时刻争抢重建锁。
+     * delta为空（旧数据没有记录耗时）时退化为普通的逻辑过期判断，已经过期时总是返回true。
+     */
+    private boolean shouldRefreshEarly(RedisData<?> redisData){
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        double gap = -delta * CACHE_XFETCH_BETA * Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= expireMillis;
+    }
+
+    //读取逻辑过期的数据，并把data反序列化为真正的类型。不是逻辑过期格式的数据视为不存在
+    @SuppressWarnings("unchecked")
+    private <R> RedisData<R> getRedisData(String key, Class<R> type){
+        byte[] bytes = getRaw(key);
+        CacheMetrics.CacheStats stats = cacheMetrics.cacheOfKey(key);
+        if (bytes == null || bytes.length == 0) {
+            stats.misses.increment();
+            return null;
+        }
+        RedisData<R> redisData = decode(bytes, RedisData.class);
+        if (redisData == null || redisData.getExpireTime() == null) {
+            stats.misses.increment();
+            return null;
+        }
+        stats.hits.increment();
+        Object data = redisData.getData();
+        if (data instanceof JSONObject) {
+            redisData.setData(((JSONObject) data).toBean(type));
+        }
+        return redisData;
+    }
+
+    //异步重建逻辑过期的缓存：同一个key的重复提交由重建线程池去重，其他节点持有锁时直接放弃
+    private <R,ID> void rebuildAsync(String key, ID id, Function<ID,R> dbFallBack, Long time, TimeUnit timeUnit){
+//        越热的key越先重建，热点格式的key按原来的key统计热度
+        rebuildExecutor.submit(key, hotKeyDetector.estimate(baseKeyOf(key)), () -> {
+//            6.1获取互斥锁，回源慢时由看门狗续期，不会在重建途中过期
+            RedisLock lock = lockClient.getLock(CACHE_LOCK_KEY + key);
+            if (!lock.tryLock()) {
+                cacheMetrics.cacheOfKey(key).lockFailures.increment();
+                return;
+            }
+            cacheMetrics.cacheOfKey(key).rebuilds.increment();
+//            6.2 成功，则重建缓存，并记录重建耗时
+            try {
+                long start = System.currentTimeMillis();
+                R r1 = loadFromDb(key, id, dbFallBack);
+                long delta = System.currentTimeMillis() - start;
+//                写入时检查fencing token，锁在回源途中过期、已被其他请求获取时放弃写入
+                writeLogical(key, r1, time, timeUnit, delta, lock);
+            } finally {
+                //释放锁，只会释放自己持有的锁
+                lock.unlock();
+            }
+        });
+    }
 }
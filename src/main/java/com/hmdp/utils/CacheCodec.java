@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+/**
+ * CacheClient写入Redis的值的编解码器。
+ * 读取时按首字节识别数据是哪种格式写入的，所以切换写入用的编解码器后旧数据仍然可以读取，
+ * 滚动发布期间新旧节点可以共存。
+ */
+public interface CacheCodec {
+
+    /** 编码，value不为null */
+    byte[] encode(Object value);
+
+    /** 解码，bytes不为空 */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /** 是否是本编解码器写入的数据 */
+    boolean canDecode(byte[] bytes);
+}
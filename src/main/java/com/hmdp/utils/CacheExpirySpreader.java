@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 打散缓存的过期时间，防止缓存雪崩。
+ * 定时扫描配置的key前缀，把接下来CACHE_EXPIRY_BUCKETS个时间桶（每个CACHE_EXPIRY_BUCKET_SECONDS秒）内要过期的key
+ * 按过期时间分桶，某个桶里的key超过上限时，把多出来的key的TTL延长到后面还有空位的桶，
+ * 让同一时刻回源数据库的请求数保持平稳。
+ * 只会延长TTL，不会缩短；更新数据时会主动删除缓存，所以延长TTL不会读到旧数据。
+ */
+@Slf4j
+@Component
+public class CacheExpirySpreader {
+
+    private static final int SCAN_BATCH = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final LongAdder spread;
+
+    //需要打散的key前缀，逗号分隔
+    @Value("${hmdp.cache.expiry-spread.prefixes:" + CACHE_SHOP_KEY + "}")
+    private String prefixes;
+
+    public CacheExpirySpreader(CacheMetrics cacheMetrics) {
+        this.spread = cacheMetrics.counter("hmdp_cache_expiry_spread_total");
+    }
+
+    @Scheduled(initialDelay = CACHE_EXPIRY_SPREAD_INTERVAL, fixedDelay = CACHE_EXPIRY_SPREAD_INTERVAL)
+    public void spreadAll() {
+        for (String prefix : StrUtil.split(prefixes, ',', true, true)) {
+            try {
+                int moved = spread(prefix);
+                if (moved > 0) {
+                    log.info("打散缓存过期时间：{} 延长了{}个key的TTL", prefix, moved);
+                }
+            } catch (Exception e) {
+                log.error("打散缓存过期时间失败：{}", prefix, e);
+            }
+        }
+    }
+
+    /**
+     * 打散一个前缀下的key的过期时间
+     * @return 延长了TTL的key的数量
+     */
+    public int spread(String prefix) {
+        long bucketMillis = CACHE_EXPIRY_BUCKET_SECONDS * 1000;
+//        1.按剩余TTL分桶，只统计接下来一段时间内要过期的key
+        List<List<byte[]>> buckets = new ArrayList<>(CACHE_EXPIRY_BUCKETS);
+        List<List<Long>> ttls = new ArrayList<>(CACHE_EXPIRY_BUCKETS);
+        for (int i = 0; i < CACHE_EXPIRY_BUCKETS; i++) {
+            buckets.add(new ArrayList<>());
+            ttls.add(new ArrayList<>());
+        }
+        int total = 0;
+        List<byte[]> keys = new ArrayList<>(SCAN_BATCH);
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(SCAN_BATCH).build();
+        //scan的游标在回调结束后还要继续使用连接，所以要用sticky连接
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                (RedisCallback<Cursor<byte[]>>) connection -> connection.scan(options))) {
+            while (cursor != null && cursor.hasNext()) {
+                keys.add(cursor.next());
+                if (keys.size() >= SCAN_BATCH || !cursor.hasNext()) {
+                    total += bucketByTtl(keys, buckets, ttls, bucketMillis);
+                    keys.clear();
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("扫描缓存key失败：" + prefix, e);
+        }
+//        2.每个桶的上限：配置的上限和平均值取较大的，保证多出来的key后面总有位置
+        int limit = Math.max(CACHE_EXPIRY_BUCKET_LIMIT, (total + CACHE_EXPIRY_BUCKETS - 1) / CACHE_EXPIRY_BUCKETS);
+        int[] counts = new int[CACHE_EXPIRY_BUCKETS];
+        for (int i = 0; i < CACHE_EXPIRY_BUCKETS; i++) {
+            counts[i] = buckets.get(i).size();
+        }
+//        3.超出上限的key往后挪到第一个有空位的桶，TTL延长相应的桶数，再在桶内随机
+        List<byte[]> movedKeys = new ArrayList<>();
+        List<Long> movedTtls = new ArrayList<>();
+        int target = 0;
+        for (int i = 0; i < CACHE_EXPIRY_BUCKETS; i++) {
+            List<byte[]> bucket = buckets.get(i);
+            for (int k = limit; k < bucket.size(); k++) {
+                target = Math.max(target, i + 1);
+                while (target < CACHE_EXPIRY_BUCKETS && counts[target] >= limit) {
+                    target++;
+                }
+                if (target >= CACHE_EXPIRY_BUCKETS) {
+                    break;
+                }
+                counts[target]++;
+                counts[i]--;
+                long extra = (target - i) * bucketMillis + ThreadLocalRandom.current().nextLong(bucketMillis);
+                movedKeys.add(bucket.get(k));
+                movedTtls.add(ttls.get(i).get(k) + extra);
+            }
+        }
+        if (movedKeys.isEmpty()) {
+            return 0;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < movedKeys.size(); i++) {
+                connection.pExpire(movedKeys.get(i), movedTtls.get(i));
+            }
+            return null;
+        });
+        spread.add(movedKeys.size());
+        return movedKeys.size();
+    }
+
+    //用pipeline批量查询剩余TTL并分桶，返回分到桶里的key数量。没有TTL（逻辑过期）的key不参与
+    private int bucketByTtl(List<byte[]> keys, List<List<byte[]>> buckets, List<List<Long>> ttls, long bucketMillis) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (byte[] key : keys) {
+                connection.pTtl(key);
+            }
+            return null;
+        });
+        int counted = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            Object ttl = results.get(i);
+            if (!(ttl instanceof Long) || (Long) ttl <= 0) {
+                continue;
+            }
+            long index = (Long) ttl / bucketMillis;
+            if (index < CACHE_EXPIRY_BUCKETS) {
+                buckets.get((int) index).add(keys.get(i));
+                ttls.get((int) index).add((Long) ttl);
+                counted++;
+            }
+        }
+        return counted;
+    }
+}
@@ -0,0 +1,176 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * 缓存和数据访问的指标：按key前缀统计缓存命中情况和Redis/数据库耗时，按Mapper方法统计SQL耗时。
+ * 计数使用LongAdder（分段计数，无锁），耗时使用LatencyHistogram，每次记录的开销在几十纳秒以内。
+ * 其他组件（例如重建线程池）可以通过counter/histogram/gauge注册不带标签的全局指标。
+ * 通过/admin/cache/metrics以Prometheus文本格式输出。
+ */
+@Component
+public class CacheMetrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final ConcurrentMap<String, CacheStats> caches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> mappers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> mapperErrors = new ConcurrentHashMap<>();
+    //全局指标，key为完整的指标名
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /** 某个key前缀的统计，前缀例如cache:shop: */
+    public CacheStats cache(String prefix) {
+        //先get，命中时不需要computeIfAbsent的加锁开销
+        CacheStats stats = caches.get(prefix);
+        return stats != null ? stats : caches.computeIfAbsent(prefix, p -> new CacheStats());
+    }
+
+    /** 根据完整的key取统计，前缀取到最后一个冒号为止，例如cache:shop:1取cache:shop: */
+    public CacheStats cacheOfKey(String key) {
+        return cache(prefixOf(key));
+    }
+
+    /** 某个Mapper方法的SQL耗时，statementId例如com.hmdp.mapper.ShopMapper.selectById */
+    public LatencyHistogram mapper(String statementId) {
+        LatencyHistogram histogram = mappers.get(statementId);
+        return histogram != null ? histogram : mappers.computeIfAbsent(statementId, s -> new LatencyHistogram());
+    }
+
+    public void mapperError(String statementId) {
+        LongAdder errors = mapperErrors.get(statementId);
+        if (errors == null) {
+            errors = mapperErrors.computeIfAbsent(statementId, s -> new LongAdder());
+        }
+        errors.increment();
+    }
+
+    /** 全局计数器，name为完整的指标名，例如hmdp_rebuild_submitted_total */
+    public LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /** 全局耗时直方图，name为不带单位换算的指标名，例如hmdp_rebuild_run_seconds */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /** 注册一个抓取时才计算的瞬时值，例如队列长度 */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public static String prefixOf(String key) {
+        int index = key.lastIndexOf(':');
+        return index < 0 ? key : key.substring(0, index + 1);
+    }
+
+    /** Prometheus文本格式，按名称排序保证每次输出顺序一致 */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        Map<String, CacheStats> cacheSnapshot = new TreeMap<>(caches);
+        counter(sb, "hmdp_cache_hits_total", "缓存命中次数（包括一级缓存）", cacheSnapshot, s -> s.hits);
+        counter(sb, "hmdp_cache_local_hits_total", "一级缓存命中次数", cacheSnapshot, s -> s.localHits);
+        counter(sb, "hmdp_cache_null_hits_total", "空值缓存命中次数", cacheSnapshot, s -> s.nullHits);
+        counter(sb, "hmdp_cache_misses_total", "缓存未命中次数", cacheSnapshot, s -> s.misses);
+        counter(sb, "hmdp_cache_stale_hits_total", "等待重建超时后返回旧值的次数", cacheSnapshot, s -> s.staleHits);
+        counter(sb, "hmdp_cache_rebuilds_total", "缓存重建次数", cacheSnapshot, s -> s.rebuilds);
+        counter(sb, "hmdp_cache_lock_failures_total", "获取重建锁失败次数", cacheSnapshot, s -> s.lockFailures);
+        counter(sb, "hmdp_cache_version_conflicts_total", "版本号比缓存中旧而放弃写入的次数", cacheSnapshot, s -> s.versionConflicts);
+        counter(sb, "hmdp_cache_fence_rejections_total", "重建锁已经丢失（fencing token不匹配）而放弃写入的次数", cacheSnapshot, s -> s.fenceRejections);
+        summaryHeader(sb, "hmdp_cache_redis_seconds", "Redis调用耗时");
+        for (Map.Entry<String, CacheStats> entry : cacheSnapshot.entrySet()) {
+            summary(sb, "hmdp_cache_redis_seconds", "prefix", entry.getKey(), entry.getValue().redis);
+        }
+        summaryHeader(sb, "hmdp_cache_db_seconds", "缓存回源数据库耗时");
+        for (Map.Entry<String, CacheStats> entry : cacheSnapshot.entrySet()) {
+            summary(sb, "hmdp_cache_db_seconds", "prefix", entry.getKey(), entry.getValue().db);
+        }
+        summaryHeader(sb, "hmdp_mapper_seconds", "Mapper方法SQL耗时");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(mappers).entrySet()) {
+            summary(sb, "hmdp_mapper_seconds", "statement", entry.getKey(), entry.getValue());
+        }
+        sb.append("# HELP hmdp_mapper_errors_total Mapper方法异常次数\n# TYPE hmdp_mapper_errors_total counter\n");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(mapperErrors).entrySet()) {
+            sb.append("hmdp_mapper_errors_total{statement=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            sb.append("# TYPE ").append(entry.getKey()).append(" counter\n")
+                    .append(entry.getKey()).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            sb.append("# TYPE ").append(entry.getKey()).append(" gauge\n")
+                    .append(entry.getKey()).append(' ').append(entry.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            sb.append("# TYPE ").append(entry.getKey()).append(" summary\n");
+            summary(sb, entry.getKey(), entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, String help,
+                                Map<String, CacheStats> snapshot, Function<CacheStats, LongAdder> getter) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, CacheStats> entry : snapshot.entrySet()) {
+            sb.append(name).append("{prefix=\"").append(entry.getKey()).append("\"} ")
+                    .append(getter.apply(entry.getValue()).sum()).append('\n');
+        }
+    }
+
+    private static void summaryHeader(StringBuilder sb, String name, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" summary\n");
+    }
+
+    private static void summary(StringBuilder sb, String name, String label, String value, LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            sb.append(name).append('{').append(label).append("=\"").append(value)
+                    .append("\",quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.quantile(quantile) / 1e9).append('\n');
+        }
+        sb.append(name).append("_sum{").append(label).append("=\"").append(value).append("\"} ")
+                .append(histogram.sum() / 1e9).append('\n');
+        sb.append(name).append("_count{").append(label).append("=\"").append(value).append("\"} ")
+                .append(histogram.count()).append('\n');
+    }
+
+    //不带标签的summary
+    private static void summary(StringBuilder sb, String name, LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            sb.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.quantile(quantile) / 1e9).append('\n');
+        }
+        sb.append(name).append("_sum ").append(histogram.sum() / 1e9).append('\n');
+        sb.append(name).append("_count ").append(histogram.count()).append('\n');
+    }
+
+    /** 一个key前缀的缓存统计 */
+    public static class CacheStats {
+        public final LongAdder hits = new LongAdder();
+        public final LongAdder localHits = new LongAdder();
+        public final LongAdder nullHits = new LongAdder();
+        public final LongAdder misses = new LongAdder();
+        public final LongAdder staleHits = new LongAdder();
+        public final LongAdder rebuilds = new LongAdder();
+        public final LongAdder lockFailures = new LongAdder();
+        public final LongAdder versionConflicts = new LongAdder();
+        public final LongAdder fenceRejections = new LongAdder();
+        public final LatencyHistogram redis = new LatencyHistogram();
+        public final LatencyHistogram db = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 缓存异步重建的线程池，替代原来的SimpleThreadPool。
+ * 1.同一个key在排队或执行中时，重复提交直接忽略；
+ * 2.队列有上限，满了拒绝新的任务；排队超过CACHE_REBUILD_MAX_WAIT的任务不再执行，下次访问会重新提交；
+ * 3.按优先级（key的访问热度）出队，越热的key越先重建；
+ * 4.任务中的异常会记录日志和指标，不会被吞掉；
+ * 5.应用关闭时停止接收新任务，等待已提交的任务执行完。
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private final Map<String, RebuildTask> pending = new ConcurrentHashMap<>();
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder submitted;
+    private final LongAdder deduplicated;
+    private final LongAdder rejected;
+    private final LongAdder expired;
+    private final LongAdder failures;
+    private final LatencyHistogram queueWait;
+    private final LatencyHistogram runTime;
+
+    public CacheRebuildExecutor(CacheMetrics cacheMetrics) {
+        //PriorityBlockingQueue本身没有上限，容量在submit中控制
+        this.executor = new ThreadPoolExecutor(CACHE_REBUILD_POOL_SIZE, CACHE_REBUILD_POOL_SIZE,
+                0L, TimeUnit.MILLISECONDS, queue, new NamedThreadFactory("cache-rebuild-", false));
+        this.submitted = cacheMetrics.counter("hmdp_rebuild_submitted_total");
+        this.deduplicated = cacheMetrics.counter("hmdp_rebuild_deduplicated_total");
+        this.rejected = cacheMetrics.counter("hmdp_rebuild_rejected_total");
+        this.expired = cacheMetrics.counter("hmdp_rebuild_expired_total");
+        this.failures = cacheMetrics.counter("hmdp_rebuild_failures_total");
+        this.queueWait = cacheMetrics.histogram("hmdp_rebuild_queue_wait_seconds");
+        this.runTime = cacheMetrics.histogram("hmdp_rebuild_run_seconds");
+        cacheMetrics.gauge("hmdp_rebuild_queue_size", queue::size);
+        cacheMetrics.gauge("hmdp_rebuild_active_threads", executor::getActiveCount);
+    }
+
+    /**
+     * 提交一个重建任务
+     * @param key 去重用的key，同一个key同时只有一个任务在排队或执行
+     * @param priority 优先级，越大越先执行，一般取key的访问次数
+     * @return 是否提交成功，重复提交、队列已满或正在关闭时返回false
+     */
+    public boolean submit(String key, long priority, Runnable action) {
+        RebuildTask task = new RebuildTask(key, priority, sequence.incrementAndGet(), action);
+        if (pending.putIfAbsent(key, task) != null) {
+            deduplicated.increment();
+            return false;
+        }
+        if (queue.size() >= CACHE_REBUILD_QUEUE_CAPACITY) {
+            pending.remove(key, task);
+            rejected.increment();
+            return false;
+        }
+        try {
+            //PriorityBlockingQueue要求元素可比较，只能用execute，submit会包装成FutureTask
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            pending.remove(key, task);
+            rejected.increment();
+            return false;
+        }
+        submitted.increment();
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CACHE_REBUILD_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                List<Runnable> dropped = executor.shutdownNow();
+                log.warn("缓存重建线程池关闭超时，丢弃{}个未执行的任务", dropped.size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String key;
+        private final long priority;
+        private final long seq;
+        private final Runnable action;
+        private final long enqueuedAt = System.nanoTime();
+
+        RebuildTask(String key, long priority, long seq, Runnable action) {
+            this.key = key;
+            this.priority = priority;
+            this.seq = seq;
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            long waited = System.nanoTime() - enqueuedAt;
+            queueWait.record(waited);
+            long start = System.nanoTime();
+            try {
+                //排队太久说明已经过载，数据可能已被其他节点重建，放弃这次重建
+                if (waited > TimeUnit.MILLISECONDS.toNanos(CACHE_REBUILD_MAX_WAIT)) {
+                    expired.increment();
+                    return;
+                }
+                action.run();
+            } catch (Throwable e) {
+                failures.increment();
+                log.error("缓存重建失败，key={}", key, e);
+            } finally {
+                runTime.recordSince(start);
+                pending.remove(key, this);
+            }
+        }
+
+        //优先级高的先执行，相同优先级先提交的先执行
+        @Override
+        public int compareTo(RebuildTask o) {
+            int c = Long.compare(o.priority, priority);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+}
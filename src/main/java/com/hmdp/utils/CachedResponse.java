@@ -0,0 +1,20 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记在GET接口上，缓存接口最终返回的Result序列化后的字节，命中时直接写到响应中，不再查询和序列化。
+ * 只缓存成功的结果；key对应的缓存通过CacheClient删除时，响应缓存也一起删除。
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CachedResponse {
+
+    /**
+     * 响应依赖的缓存key，{name}会替换为同名的路径变量或请求参数，例如cache:shop:{id}
+     */
+    String key();
+}
@@ -0,0 +1,31 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 进程内概率数据结构（BloomFilter、HotKeyDetector）共用的哈希函数
+ */
+public class HashUtils {
+
+    private HashUtils() {
+    }
+
+    /**
+     * 64位哈希：FNV-1a再做一次murmur3的fmix64，让低位和高位都足够分散。
+     * 调用方通常把结果拆成两个32位哈希，用双重哈希组合出多个哈希函数
+     * @param value 按UTF-8编码计算
+     */
+    public static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
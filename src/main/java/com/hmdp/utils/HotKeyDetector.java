@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点key探测。
+ * 用Count-Min Sketch统计每个key的访问次数（无锁），定时把所有计数减半实现衰减，
+ * 只保留最近一段时间的热度；另外维护一个近似的Top-K候选集合用于展示。
+ * 访问次数达到晋升阈值的key成为热点，衰减后低于降级阈值（晋升阈值的一半）的热点被降级。
+ */
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+
+    private final AtomicLongArray counters;
+    private final int width;
+    private final int topK;
+    private final long promoteThreshold;
+    private final long demoteThreshold;
+
+    //Top-K候选：key到最近一次估计的访问次数
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+    //当前的热点key
+    private final Set<String> hotKeys = ConcurrentHashMap.newKeySet();
+    //手动晋升的key（例如预热的key），在下一次衰减前不会被降级
+    private final Set<String> manualKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param width 每一行的计数器个数，必须是2的幂
+     * @param topK 展示的热点个数
+     * @param promoteThreshold 一个衰减周期内达到多少次访问晋升为热点
+     */
+    public HotKeyDetector(int width, int topK, long promoteThreshold) {
+        this.width = width;
+        this.topK = topK;
+        this.promoteThreshold = promoteThreshold;
+        this.demoteThreshold = promoteThreshold / 2;
+        this.counters = new AtomicLongArray(DEPTH * width);
+    }
+
+    /**
+     * 记录一次访问
+     * @return 访问之后该key是否为热点
+     */
+    public boolean record(String key) {
+        long hash = HashUtils.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * width + ((h1 + i * h2) & (width - 1));
+            estimate = Math.min(estimate, counters.incrementAndGet(index));
+        }
+        //候选集合的大小有上限，满了之后只更新已有的候选，等衰减时再清理
+        if (estimate >= demoteThreshold && (candidates.size() < topK * 4 || candidates.containsKey(key))) {
+            candidates.put(key, estimate);
+        }
+        if (estimate >= promoteThreshold) {
+            hotKeys.add(key);
+            return true;
+        }
+        return hotKeys.contains(key);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    //手动晋升，例如预热过的key
+    public void promote(String key) {
+        hotKeys.add(key);
+        manualKeys.add(key);
+    }
+
+    public long estimate(String key) {
+        long hash = HashUtils.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, counters.get(i * width + ((h1 + i * h2) & (width - 1))));
+        }
+        return estimate;
+    }
+
+    /**
+     * 衰减：所有计数减半，并降级已经变冷的热点key
+     * @return 本次被降级的key
+     */
+    public List<String> decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.getAndUpdate(i, v -> v >>> 1);
+        }
+        List<String> demoted = new ArrayList<>();
+        for (String key : hotKeys) {
+            if (manualKeys.remove(key)) {
+                continue;
+            }
+            if (estimate(key) < demoteThreshold) {
+                hotKeys.remove(key);
+                demoted.add(key);
+            }
+        }
+        for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+            long estimate = estimate(entry.getKey());
+            if (estimate < demoteThreshold / 2 && !hotKeys.contains(entry.getKey())) {
+                candidates.remove(entry.getKey());
+            } else {
+                entry.setValue(estimate);
+            }
+        }
+        return demoted;
+    }
+
+    /** 当前访问次数最多的K个key，按次数从高到低排列 */
+    public Map<String, Long> topK() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(candidates.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries) {
+            if (result.size() >= topK) {
+                break;
+            }
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+}
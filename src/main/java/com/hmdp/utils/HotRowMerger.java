@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点行合并。
+ * 对同一行（例如同一个优惠券的库存）的并发写请求在内存里排队，同一时刻每行只有一个线程（leader）访问数据库：
+ * leader把排队的请求合并成一次写入（一条UPDATE stock = stock - n），写完后把结果分发给各个请求，
+ * 在它写入期间到达的请求自动组成下一批，行锁的持有次数从每个请求一次降为每批一次。
+ * 没有专门的线程，谁先到谁当leader，在调用线程里执行。
+ * 写入可以只成功一部分（例如剩余库存小于n）：只有排在前面的元素成功，按到达顺序分给各个请求。
+ */
+public class HotRowMerger<T> {
+
+    /** 合并后的写入 */
+    @FunctionalInterface
+    public interface Writer<T> {
+        /**
+         * 为key一次写入items
+         * @return 成功的个数k，表示items中前k个成功
+         */
+        int write(Long key, List<T> items);
+    }
+
+    private final Writer<T> writer;
+    private final int maxBatchSize;
+    private final Map<Long, Row<T>> rows = new ConcurrentHashMap<>();
+
+    //合并写入的次数和合并的元素个数，两者的比值就是平均每次合并了多少个
+    private final LongAdder writes;
+    private final LongAdder items;
+
+    /**
+     * @param maxBatchSize 一次合并的元素个数上限（至少包含一个请求）
+     * @param name 指标名称
+     */
+    public HotRowMerger(Writer<T> writer, int maxBatchSize, CacheMetrics cacheMetrics, String name) {
+        this.writer = writer;
+        this.maxBatchSize = maxBatchSize;
+        this.writes = cacheMetrics.counter("hmdp_" + name + "_merged_writes_total");
+        this.items = cacheMetrics.counter("hmdp_" + name + "_merged_items_total");
+    }
+
+    /**
+     * 提交一个写请求。当前没有leader时由调用线程执行合并写入，返回时已经完成；否则等待leader完成
+     * @return 成功的个数k，表示items中前k个成功
+     */
+    public CompletableFuture<Integer> submit(Long key, List<T> items) {
+        Row<T> row = rows.computeIfAbsent(key, k -> new Row<>());
+        Request<T> request = new Request<>(items);
+        row.queue.add(request);
+        if (row.leading.compareAndSet(false, true)) {
+            lead(key, row);
+        }
+        return request.future;
+    }
+
+    private void lead(Long key, Row<T> row) {
+        do {
+            List<Request<T>> batch;
+            while (!(batch = drain(row)).isEmpty()) {
+                write(key, batch);
+            }
+            row.leading.set(false);
+            //释放leader之前到达的请求可能没有被看到，重新检查一次
+        } while (!row.queue.isEmpty() && row.leading.compareAndSet(false, true));
+    }
+
+    private List<Request<T>> drain(Row<T> row) {
+        List<Request<T>> batch = new ArrayList<>();
+        int size = 0;
+        Request<T> request;
+        while (size < maxBatchSize && (request = row.queue.peek()) != null) {
+            if (!batch.isEmpty() && size + request.items.size() > maxBatchSize) {
+                break;
+            }
+            row.queue.poll();
+            batch.add(request);
+            size += request.items.size();
+        }
+        return batch;
+    }
+
+    private void write(Long key, List<Request<T>> batch) {
+        List<T> merged = new ArrayList<>();
+        for (Request<T> request : batch) {
+            merged.addAll(request.items);
+        }
+        int success;
+        try {
+            success = writer.write(key, merged);
+        } catch (Exception e) {
+            for (Request<T> request : batch) {
+                request.future.completeExceptionally(e);
+            }
+            return;
+        }
+        writes.increment();
+        items.add(merged.size());
+        //按到达顺序分配成功的个数，剩余不足的请求只成功一部分
+        int remaining = Math.max(success, 0);
+        for (Request<T> request : batch) {
+            int granted = Math.min(remaining, request.items.size());
+            remaining -= granted;
+            request.future.complete(granted);
+        }
+    }
+
+    private static class Row<T> {
+        final Queue<Request<T>> queue = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean leading = new AtomicBoolean();
+    }
+
+    private static class Request<T> {
+        final List<T> items;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        Request(List<T> items) {
+            this.items = items;
+        }
+    }
+}
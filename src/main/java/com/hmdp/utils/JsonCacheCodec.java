@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 默认的JSON编解码器，和原来JSONUtil.toJsonStr写入的数据完全一致。
+ * 其他编解码器无法识别的数据都按JSON解码。
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的延迟直方图（纳秒），分桶方式参考HdrHistogram：
+ * 每个2的幂区间再均分为8个子桶，相对误差不超过12.5%，记录一次只需要几次位运算和一次原子自增。
+ * 超过2^40纳秒（约18分钟）的值记到最后一个桶。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(indexOf(nanos));
+        count.increment();
+        sum.add(nanos);
+    }
+
+    /** 记录从startNanos（System.nanoTime()）到现在的耗时 */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * 估算分位数，返回所在桶的上界（纳秒）
+     * @param quantile 0到1之间，例如0.99
+     */
+    public long quantile(double quantile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKET_COUNT - 1);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + sub;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        int sub = index % SUB_BUCKET_COUNT;
+        return ((long) (SUB_BUCKET_COUNT + sub) << shift) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * 统计每个Mapper方法的SQL耗时和异常次数，按MappedStatement的id（Mapper全类名.方法名）区分
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "update",
+                args = {MappedStatement.class, Object.class})
+})
+public class MapperMetricsInterceptor implements Interceptor {
+
+    private final CacheMetrics cacheMetrics;
+
+    public MapperMetricsInterceptor(CacheMetrics cacheMetrics) {
+        this.cacheMetrics = cacheMetrics;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        String statementId = ((MappedStatement) invocation.getArgs()[0]).getId();
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } catch (Throwable e) {
+            cacheMetrics.mapperError(statementId);
+            throw e;
+        } finally {
+            cacheMetrics.mapper(statementId).recordSince(start);
+        }
+    }
+}
@@ -11,10 +11,88 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final int CACHE_LOCAL_MAX_SIZE = 10000;
+    public static final int RESPONSE_CACHE_MAX_SIZE = 10000;
+    public static final Long CACHE_LOCAL_TTL = 60L;
+    public static final double CACHE_BLOOM_FPP = 0.01;
+    public static final long CACHE_BLOOM_REBUILD_INTERVAL = 30 * 60 * 1000L;
+
+    public static final long CACHE_LOAD_WAIT_TIME = 3000L;
+    public static final String CACHE_LOCK_KEY = "lock:";
+    public static final long CACHE_LOCK_WAIT_TIME = 1000L;
+    public static final int CACHE_STALE_MAX_SIZE = 10000;
+
+    public static final double CACHE_XFETCH_BETA = 1.0;
+    public static final int CACHE_COMPRESS_THRESHOLD = 512;
+    public static final String CACHE_HOT_KEY_PREFIX = "hot:";
+    public static final int CACHE_HOT_KEY_SKETCH_WIDTH = 1 << 14;
+    public static final int CACHE_HOT_KEY_TOP_K = 100;
+    public static final long CACHE_HOT_KEY_THRESHOLD = 200L;
+    public static final long CACHE_HOT_KEY_DECAY_INTERVAL = 10 * 1000L;
+    public static final int CACHE_WARM_UP_BATCH_SIZE = 100;
+    public static final int CACHE_WARM_UP_PARALLELISM = 4;
+    public static final long CACHE_WARM_UP_INTERVAL = 10 * 60 * 1000L;
+    public static final int CACHE_REBUILD_POOL_SIZE = 10;
+    public static final int CACHE_REBUILD_QUEUE_CAPACITY = 1000;
+    public static final long CACHE_REBUILD_MAX_WAIT = 5000L;
+    public static final long CACHE_REBUILD_SHUTDOWN_TIMEOUT = 30L;
+    public static final double CACHE_TTL_JITTER = 0.1;
+    public static final long CACHE_EXPIRY_BUCKET_SECONDS = 10L;
+    public static final int CACHE_EXPIRY_BUCKETS = 60;
+    public static final int CACHE_EXPIRY_BUCKET_LIMIT = 100;
+    public static final long CACHE_EXPIRY_SPREAD_INTERVAL = 60 * 1000L;
+    public static final String CACHE_VERSION_KEY = "version:";
+    public static final Long CACHE_VERSION_EXTRA_TTL = 30L;
+    public static final long CACHE_DOUBLE_DELETE_DELAY = 1000L;
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type:list";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop-type:version";
+    public static final String CACHE_SHOP_TYPE_CHANNEL = "cache:shop-type:changed";
+    public static final long CACHE_SHOP_TYPE_CHECK_INTERVAL = 30 * 1000L;
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:shop-voucher:";
+    public static final Long CACHE_SHOP_VOUCHER_TTL = 30L;
+
+    public static final String LOCK_FENCE_KEY = "lock:fence";
+    public static final String LOCK_RELEASED_CHANNEL = "lock:released";
+    public static final long LOCK_WATCHDOG_TIMEOUT = 30 * 1000L;
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_VOUCHER_CHANNEL = "seckill:voucher:changed";
+    public static final long SECKILL_PRELOAD_INTERVAL = 60 * 1000L;
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final int SECKILL_ORDER_BATCH_SIZE = 100;
+    public static final long SECKILL_ORDER_LINGER_TIME = 10L;
+    public static final int SECKILL_ORDER_SINK_RETRIES = 3;
+    public static final long SECKILL_ORDER_BLOCK_TIME = 2000L;
+    public static final long SECKILL_ORDER_PENDING_IDLE = 60 * 1000L;
+    public static final long SECKILL_ORDER_CLAIM_INTERVAL = 30 * 1000L;
+    public static final long SECKILL_ORDER_PENDING_BACKOFF_MIN = 100L;
+    public static final long SECKILL_ORDER_PENDING_BACKOFF_MAX = 10 * 1000L;
+    public static final int SECKILL_STOCK_MERGE_MAX_SIZE = 500;
+    public static final String SECKILL_COMPENSATE_KEY = "seckill:compensated:";
+    public static final long SECKILL_COMPENSATE_TTL = 24 * 60 * 60L;
+    public static final String SECKILL_RATE_KEY = "seckill:rate:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final long SECKILL_SOLD_OUT_RECHECK_INTERVAL = 1000L;
+    public static final String ORDER_TIMEOUT_KEY = "order:timeout";
+    public static final long ORDER_PAY_TIMEOUT = 15 * 60 * 1000L;
+    public static final String ORDER_CANCEL_RESTORED_KEY = "order:cancel:restored:";
+    public static final long DELAY_QUEUE_TICK = 100L;
+    public static final int DELAY_QUEUE_WHEEL_SIZE = 512;
+    public static final int DELAY_QUEUE_LEVELS = 4;
+    public static final int DELAY_QUEUE_BATCH_SIZE = 500;
+    public static final long DELAY_QUEUE_CLAIM_LEASE = 60 * 1000L;
+    public static final long DELAY_QUEUE_POLL_INTERVAL = 5 * 1000L;
+    public static final String ID_KEY = "icr:";
+    public static final int ID_SEGMENT_MIN_STEP = 1000;
+    public static final int ID_SEGMENT_MAX_STEP = 100000;
+    public static final long ID_SEGMENT_TARGET_DURATION = 60 * 1000L;
+    public static final double ID_SEGMENT_PREFETCH_RATIO = 0.2;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
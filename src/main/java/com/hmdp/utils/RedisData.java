@@ -8,4 +8,6 @@ import java.time.LocalDateTime;
 public class RedisData<T> {
     private LocalDateTime expireTime;
     private T data;
+    //上一次重建缓存的耗时（毫秒），用于概率提前刷新
+    private Long delta;
 }
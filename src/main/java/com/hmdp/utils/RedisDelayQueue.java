@@ -0,0 +1,174 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.resource.ResourceUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 延时队列。
+ * 任务同时写入Redis的zset（分数是到期时间，保证持久化和故障转移）和本地的分层时间轮（O(1)插入，到期时不需要轮询Redis）；
+ * 时间轮到期后用Lua脚本从zset里领取任务，领取时把分数改成租期的结束时间，处理成功后删除；
+ * 另外定时按分数范围领取已经到期的任务，覆盖节点重启（时间轮丢失）和领取者宕机（租期过后被重新领取）的情况。
+ * 一次到期的任务合并成一批交给handler，handler必须是幂等的，处理失败时抛出异常，任务留在zset里等租期过后重试。
+ */
+@Slf4j
+public class RedisDelayQueue {
+
+    private static final byte[] CLAIM_SCRIPT = ResourceUtil.readBytes("delay_claim.lua");
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String key;
+    private final Consumer<List<String>> handler;
+    private final TimingWheel<String> wheel;
+    //添加时已经到期、没有放进时间轮的任务，由下一次推进时处理
+    private final Queue<String> due = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService ticker;
+
+    private final LongAdder scheduled;
+    private final LongAdder handled;
+    private final LongAdder failures;
+
+    public RedisDelayQueue(StringRedisTemplate stringRedisTemplate, String key,
+                           Consumer<List<String>> handler, CacheMetrics cacheMetrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = key;
+        this.handler = handler;
+        this.wheel = new TimingWheel<>(DELAY_QUEUE_TICK, DELAY_QUEUE_WHEEL_SIZE, DELAY_QUEUE_LEVELS,
+                System.currentTimeMillis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "delay-queue-" + key);
+            thread.setDaemon(true);
+            return thread;
+        });
+        String name = key.replace(':', '_');
+        this.scheduled = cacheMetrics.counter("hmdp_delay_queue_" + name + "_scheduled_total");
+        this.handled = cacheMetrics.counter("hmdp_delay_queue_" + name + "_handled_total");
+        this.failures = cacheMetrics.counter("hmdp_delay_queue_" + name + "_failures_total");
+        cacheMetrics.gauge("hmdp_delay_queue_" + name + "_wheel_size", wheel::size);
+    }
+
+    public void start() {
+        ticker.scheduleWithFixedDelay(this::tick, DELAY_QUEUE_TICK, DELAY_QUEUE_TICK, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::poll, 0, DELAY_QUEUE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * 批量添加延时任务，一次ZADD写入Redis
+     * @param deadlines 任务到期时间（毫秒）
+     */
+    public void schedule(Map<String, Long> deadlines) {
+        if (deadlines.isEmpty()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(deadlines.size());
+        for (Map.Entry<String, Long> entry : deadlines.entrySet()) {
+            tuples.add(new DefaultTypedTuple<>(entry.getKey(), entry.getValue().doubleValue()));
+        }
+        // 1.先写Redis，保证任务不会因为节点宕机丢失
+        stringRedisTemplate.opsForZSet().add(key, tuples);
+        // 2.再放进时间轮
+        for (Map.Entry<String, Long> entry : deadlines.entrySet()) {
+            if (!wheel.add(entry.getKey(), entry.getValue())) {
+                due.add(entry.getKey());
+            }
+        }
+        scheduled.add(deadlines.size());
+    }
+
+    //推进时间轮，领取到期的任务。包可见，测试时直接调用，不启动定时线程
+    void tick() {
+        try {
+            List<String> expired = wheel.advance(System.currentTimeMillis());
+            String member;
+            while ((member = due.poll()) != null) {
+                expired.add(member);
+            }
+            for (int from = 0; from < expired.size(); from += DELAY_QUEUE_BATCH_SIZE) {
+                List<String> members = expired.subList(from, Math.min(from + DELAY_QUEUE_BATCH_SIZE, expired.size()));
+                handle(claim(members));
+            }
+        } catch (Exception e) {
+            //没有领取到的任务由定时轮询兜底
+            log.error("处理延时任务{}异常", key, e);
+        }
+    }
+
+    //按分数范围领取到期的任务，直到没有到期的任务
+    void poll() {
+        try {
+            List<String> claimed;
+            do {
+                claimed = claim(null);
+                handle(claimed);
+            } while (claimed.size() >= DELAY_QUEUE_BATCH_SIZE);
+        } catch (Exception e) {
+            log.error("轮询延时任务{}异常", key, e);
+        }
+    }
+
+    private void handle(List<String> members) {
+        if (members.isEmpty()) {
+            return;
+        }
+        try {
+            handler.accept(members);
+        } catch (Exception e) {
+            //任务留在zset里，租期过后重新领取
+            log.error("处理{}个延时任务失败", members.size(), e);
+            failures.increment();
+            return;
+        }
+        stringRedisTemplate.opsForZSet().remove(key, members.toArray());
+        handled.add(members.size());
+    }
+
+    //members为null时按分数范围领取
+    private List<String> claim(List<String> members) {
+        int size = members == null ? 0 : members.size();
+        byte[][] keysAndArgs = new byte[4 + size][];
+        keysAndArgs[0] = rawKey(key);
+        keysAndArgs[1] = rawKey(String.valueOf(System.currentTimeMillis()));
+        keysAndArgs[2] = rawKey(String.valueOf(DELAY_QUEUE_CLAIM_LEASE));
+        keysAndArgs[3] = rawKey(String.valueOf(DELAY_QUEUE_BATCH_SIZE));
+        for (int i = 0; i < size; i++) {
+            keysAndArgs[4 + i] = rawKey(members.get(i));
+        }
+        List<byte[]> result = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.eval(CLAIM_SCRIPT, ReturnType.MULTI, 1, keysAndArgs));
+        List<String> claimed = new ArrayList<>(result == null ? 0 : result.size());
+        if (result != null) {
+            for (byte[] bytes : result) {
+                claimed.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+        return claimed;
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+}
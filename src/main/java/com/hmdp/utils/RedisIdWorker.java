@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 全局唯一id：高31位是相对起始时间的秒数，低32位是序列号。
+ * 序列号按号段从Redis计数器批量租用（INCRBY），在内存里无锁发放，见{@link SegmentIdGenerator}
+ */
+@Component
+public class RedisIdWorker {
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SegmentIdGenerator generator;
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics) {
+        SegmentIdGenerator.Allocator allocator = (key, step) -> {
+            Long end = stringRedisTemplate.opsForValue().increment(ID_KEY + key, step);
+            if (end == null) {
+                throw new IllegalStateException("租用号段失败：" + key);
+            }
+            return end - step;
+        };
+        this.generator = new SegmentIdGenerator(allocator, prefetchExecutor,
+                ID_SEGMENT_MIN_STEP, ID_SEGMENT_MAX_STEP, ID_SEGMENT_TARGET_DURATION, ID_SEGMENT_PREFETCH_RATIO);
+        cacheMetrics.gauge("hmdp_id_segment_leases_total", generator::leases);
+        cacheMetrics.gauge("hmdp_id_segment_stalls_total", generator::stalls);
+    }
+
+    public long nextId(String keyPrefix) {
+        return generator.nextId(keyPrefix);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis可重入分布式锁，通过{@link RedisLockClient#getLock(String)}获取。
+ * 持有者是"节点id:线程id"，同一个线程可以重复获取，获取几次就要释放几次；
+ * 只有持有者能释放锁，不会误删其他线程或节点的锁。
+ * 不指定租期时由看门狗定期续期，持有者存活期间锁不会过期。
+ */
+public class RedisLock {
+
+    private final RedisLockClient client;
+    private final String name;
+
+    RedisLock(RedisLockClient client, String name) {
+        this.client = client;
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** 尝试获取一次，不等待，由看门狗续期 */
+    public boolean tryLock() {
+        return client.tryLock(name, 0, -1);
+    }
+
+    /** 在waitTime内等待锁被释放，由看门狗续期 */
+    public boolean tryLock(long waitTime, TimeUnit unit) {
+        return client.tryLock(name, unit.toMillis(waitTime), -1);
+    }
+
+    /**
+     * @param waitTime 最长等待时间
+     * @param leaseTime 租期，到期自动释放；小于等于0时由看门狗续期
+     */
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) {
+        return client.tryLock(name, unit.toMillis(waitTime), leaseTime > 0 ? unit.toMillis(leaseTime) : -1);
+    }
+
+    /**
+     * 等待锁被释放，但不获取锁；锁不存在时立即返回。
+     * 适合只需要等别人完成、自己不一定要执行的场景，例如等待持有重建锁的请求写好缓存
+     * @return 锁已经被释放（或者到了锁的剩余租期）返回true，等待超时返回false
+     */
+    public boolean awaitRelease(long waitTime, TimeUnit unit) throws InterruptedException {
+        return client.awaitRelease(name, unit.toMillis(waitTime));
+    }
+
+    /**
+     * 释放一次锁
+     * @throws IllegalMonitorStateException 当前线程没有持有锁
+     */
+    public void unlock() {
+        client.unlock(name);
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return client.isHeldByCurrentThread(name);
+    }
+
+    /**
+     * 当前线程持有锁时的fencing token。每次获取锁（重入除外）都会分配一个单调递增的token，并记录在锁的hash中。
+     * 写入时把token带给Redis，由Lua脚本和锁中记录的token比较（见cache_set_if_newer.lua），
+     * 锁过期后仍在执行的旧持有者的写入会被拒绝
+     * @throws IllegalMonitorStateException 当前线程没有持有锁
+     */
+    public long getFencingToken() {
+        return client.getFencingToken(name);
+    }
+}
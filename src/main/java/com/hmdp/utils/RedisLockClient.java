@@ -0,0 +1,267 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.resource.ResourceUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 分布式锁的客户端，负责执行加锁/释放/续期脚本、看门狗和等待通知。
+ * 1.锁是一个hash：持有者到重入次数，另外记录本次持有的fencing token；加锁、释放、续期都是Lua脚本，保证原子性；
+ * 2.不指定租期时，看门狗每隔租期的1/3续期一次，直到锁被完全释放或发现锁已经丢失；
+ * 3.获取失败需要等待时不自旋，锁被释放时脚本会广播，等待者收到通知后再去抢锁，最长等到锁的剩余租期；
+ *   只等待锁被释放、不抢锁的等待者（awaitRelease）也由同一个广播唤醒。
+ */
+@Slf4j
+@Component
+public class RedisLockClient implements MessageListener {
+
+    private static final byte[] ACQUIRE_SCRIPT = ResourceUtil.readBytes("lock_acquire.lua");
+    private static final byte[] RELEASE_SCRIPT = ResourceUtil.readBytes("lock_release.lua");
+    private static final byte[] RENEW_SCRIPT = ResourceUtil.readBytes("lock_renew.lua");
+
+    private final StringRedisTemplate stringRedisTemplate;
+    //区分不同节点，同一节点内用线程id区分
+    private final String clientId = UUID.fastUUID().toString(true);
+    private final ScheduledExecutorService watchdog =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("lock-watchdog-", true));
+    //本节点持有的锁：锁名:线程id到持有信息，只有持有的线程会修改
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+    //等待锁释放的latch，收到释放通知时唤醒；按等待者计数，最后一个等待者超时离开时删除
+    private final Map<String, Waiters> waitLatches = new ConcurrentHashMap<>();
+
+    private final LongAdder lost;
+
+    public RedisLockClient(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.lost = cacheMetrics.counter("hmdp_lock_lost_total");
+        cacheMetrics.gauge("hmdp_lock_held", holds::size);
+    }
+
+    public RedisLock getLock(String name) {
+        return new RedisLock(this, name);
+    }
+
+    boolean tryLock(String name, long waitMillis, long leaseMillis) {
+        String owner = owner();
+        long lease = leaseMillis > 0 ? leaseMillis : LOCK_WATCHDOG_TIMEOUT;
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+//            先注册latch再抢锁，防止在抢锁和等待之间错过释放通知
+            Waiters waiters = waitMillis > 0 ? addWaiter(name) : null;
+            try {
+                long result = acquire(name, owner, lease);
+                if (result > 0) {
+                    onAcquired(name, owner, result, lease, leaseMillis <= 0);
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (waiters == null || remaining <= 0) {
+                    return false;
+                }
+//                锁的持有者宕机时不会有释放通知，最多等到锁过期
+                waiters.latch.await(Math.min(remaining, -result), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                if (waiters != null) {
+                    removeWaiter(name, waiters);
+                }
+            }
+        }
+    }
+
+    boolean awaitRelease(String name, long waitMillis) throws InterruptedException {
+//        先注册latch再检查锁，防止在检查和等待之间错过释放通知
+        Waiters waiters = addWaiter(name);
+        try {
+            Long ttl = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.pTtl(raw(name)));
+            if (ttl == null || ttl == -2) {
+                return true;
+            }
+//            锁的持有者宕机时不会有释放通知，最多等到锁过期
+            long wait = ttl > 0 ? Math.min(waitMillis, ttl) : waitMillis;
+            return waiters.latch.await(wait, TimeUnit.MILLISECONDS) || wait < waitMillis;
+        } finally {
+            removeWaiter(name, waiters);
+        }
+    }
+
+    void unlock(String name) {
+        String owner = owner();
+        Hold hold = holds.get(holdKey(name));
+        if (hold == null) {
+            throw new IllegalMonitorStateException("当前线程没有持有锁：" + name);
+        }
+        Long result;
+        try {
+            result = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(
+                    RELEASE_SCRIPT, ReturnType.INTEGER, 1,
+                    raw(name), raw(owner), raw(String.valueOf(hold.lease)), raw(LOCK_RELEASED_CHANNEL)));
+        } catch (RuntimeException e) {
+//            释放失败时只减本地计数，Redis中的锁停止续期后会自动过期
+            release(name, hold);
+            throw e;
+        }
+        if (result != null && result == -1) {
+            lost.increment();
+            log.warn("释放锁时发现锁已经丢失：{}", name);
+            hold.count = 1;
+        }
+        release(name, hold);
+        if (result != null && result == 1) {
+            wakeWaiters(name);
+        }
+    }
+
+    boolean isHeldByCurrentThread(String name) {
+        return holds.containsKey(holdKey(name));
+    }
+
+    long getFencingToken(String name) {
+        Hold hold = holds.get(holdKey(name));
+        if (hold == null) {
+            throw new IllegalMonitorStateException("当前线程没有持有锁：" + name);
+        }
+        return hold.token;
+    }
+
+    //其他节点（也包括自己）释放了锁，唤醒本节点的等待者
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        wakeWaiters(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+
+    private long acquire(String name, String owner, long lease) {
+        Long result = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(
+                ACQUIRE_SCRIPT, ReturnType.INTEGER, 2,
+                raw(name), raw(LOCK_FENCE_KEY), raw(owner), raw(String.valueOf(lease))));
+        return result == null ? -1 : result;
+    }
+
+    private void onAcquired(String name, String owner, long token, long lease, boolean watch) {
+        String key = holdKey(name);
+        Hold hold = holds.get(key);
+        if (hold != null) {
+            hold.count++;
+            return;
+        }
+        hold = new Hold(key, token, lease);
+        holds.put(key, hold);
+        if (watch) {
+            Hold h = hold;
+            long period = lease / 3;
+            hold.renewal = watchdog.scheduleAtFixedRate(() -> renew(name, owner, h), period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //在看门狗线程中执行，不能用当前线程id计算持有者
+    private void renew(String name, String owner, Hold hold) {
+        try {
+            Long result = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(
+                    RENEW_SCRIPT, ReturnType.INTEGER, 1, raw(name), raw(owner), raw(String.valueOf(hold.lease))));
+            if (result != null && result == 0) {
+                hold.renewal.cancel(false);
+//                和释放并发时脚本也会返回0，这种情况不算丢失
+                if (holds.get(hold.key) == hold) {
+                    lost.increment();
+                    log.warn("锁已经丢失，停止续期：{}", name);
+                }
+            }
+        } catch (Exception e) {
+//            续期失败（例如Redis短暂不可用）时保留任务，下一个周期再试
+            log.warn("锁续期失败：{}", name, e);
+        }
+    }
+
+    private void release(String name, Hold hold) {
+        if (--hold.count > 0) {
+            return;
+        }
+        holds.remove(hold.key);
+        if (hold.renewal != null) {
+            hold.renewal.cancel(false);
+        }
+    }
+
+    private Waiters addWaiter(String name) {
+        return waitLatches.compute(name, (k, waiters) -> {
+            if (waiters == null) {
+                waiters = new Waiters();
+            }
+            waiters.count++;
+            return waiters;
+        });
+    }
+
+    //已经被释放通知移除的latch不用再计数；其他等待者还在等同一个latch时保留
+    private void removeWaiter(String name, Waiters waiters) {
+        waitLatches.computeIfPresent(name, (k, current) -> current == waiters && --current.count == 0 ? null : current);
+    }
+
+    private void wakeWaiters(String name) {
+        Waiters waiters = waitLatches.remove(name);
+        if (waiters != null) {
+            waiters.latch.countDown();
+        }
+    }
+
+    private String owner() {
+        return clientId + ":" + Thread.currentThread().getId();
+    }
+
+    private static String holdKey(String name) {
+        return name + ":" + Thread.currentThread().getId();
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    //同一个锁在本节点的等待者共用一个latch，count只在map的compute中修改
+    private static class Waiters {
+        final CountDownLatch latch = new CountDownLatch(1);
+        int count;
+    }
+
+    private static class Hold {
+        final String key;
+        final long token;
+        //租期，重入释放和看门狗续期时重置为这个值
+        final long lease;
+        int count = 1;
+        //固定租期时为null
+        volatile ScheduledFuture<?> renewal;
+
+        Hold(String key, long token, long lease) {
+            this.key = key;
+            this.token = token;
+            this.lease = lease;
+        }
+    }
+}
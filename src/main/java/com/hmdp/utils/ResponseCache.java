@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.CACHE_LOCAL_TTL;
+import static com.hmdp.utils.RedisConstants.RESPONSE_CACHE_MAX_SIZE;
+
+/**
+ * 接口响应字节的进程内缓存，配合@CachedResponse使用。
+ * 响应按请求路径和参数缓存，同时记录它依赖的缓存key；CacheClient删除这个key时（包括其他节点广播过来的），
+ * 依赖它的响应一起删除。TTL和一级缓存一样，作为失效广播丢失时的兜底。
+ * 命中时不会进入Controller，所以由这里向CacheClient记录一次对依赖key的访问，热点探测照常生效。
+ */
+@Component
+public class ResponseCache {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final LRUCache<String, CachedBody> responses =
+            CacheUtil.newLRUCache(RESPONSE_CACHE_MAX_SIZE, TimeUnit.SECONDS.toMillis(CACHE_LOCAL_TTL));
+    //依赖的缓存key到响应key的映射，响应被淘汰、过期或删除时同步移除
+    private final Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+    //按缓存key分段的失效次数。查询开始时记下，写入响应缓存前再比较，
+    //期间发生过失效说明查到的可能是旧数据，不写入
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @PostConstruct
+    public void init() {
+        cacheClient.addInvalidationListener(this::invalidate);
+        responses.setListener((requestKey, cached) -> removeDependent(cached.dataKey, requestKey));
+    }
+
+    public byte[] get(String requestKey) {
+        CachedBody cached = responses.get(requestKey, false);
+        if (cached == null) {
+            return null;
+        }
+        cacheClient.recordAccess(cached.dataKey);
+        return cached.body;
+    }
+
+    public long generation(String dataKey) {
+        return generations.get(stripeOf(dataKey));
+    }
+
+    public void put(String requestKey, String dataKey, long generation, byte[] body) {
+        //和removeDependent一样在compute里修改，避免刚加入的响应key随着空集合一起被移除
+        dependents.compute(dataKey, (k, requestKeys) -> {
+            if (requestKeys == null) {
+                requestKeys = ConcurrentHashMap.newKeySet();
+            }
+            requestKeys.add(requestKey);
+            return requestKeys;
+        });
+        responses.put(requestKey, new CachedBody(dataKey, body));
+        //写入之后再检查一次，和invalidate并发时保证不会留下旧的响应
+        if (generations.get(stripeOf(dataKey)) != generation) {
+            responses.remove(requestKey);
+        }
+    }
+
+    public void invalidate(String dataKey) {
+        generations.incrementAndGet(stripeOf(dataKey));
+        Set<String> requestKeys = dependents.remove(dataKey);
+        if (requestKeys != null) {
+            for (String requestKey : requestKeys) {
+                responses.remove(requestKey);
+            }
+        }
+    }
+
+    private void removeDependent(String dataKey, String requestKey) {
+        dependents.computeIfPresent(dataKey, (k, requestKeys) -> {
+            requestKeys.remove(requestKey);
+            return requestKeys.isEmpty() ? null : requestKeys;
+        });
+    }
+
+    private static int stripeOf(String dataKey) {
+        int h = dataKey.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private static class CachedBody {
+        final String dataKey;
+        final byte[] body;
+
+        CachedBody(String dataKey, byte[] body) {
+            this.dataKey = dataKey;
+            this.body = body;
+        }
+    }
+}
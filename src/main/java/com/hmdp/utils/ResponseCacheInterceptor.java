@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 处理@CachedResponse接口：命中响应缓存时直接把字节写到输出流，不再进入Controller；
+ * 未命中时记下响应key、依赖的缓存key和失效次数，由ResponseCacheAdvice在序列化时写入缓存。
+ */
+public class ResponseCacheInterceptor implements HandlerInterceptor {
+
+    public static final String REQUEST_KEY_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".requestKey";
+    public static final String DATA_KEY_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".dataKey";
+    public static final String GENERATION_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".generation";
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{(\\w+)}");
+
+    private final ResponseCache responseCache;
+
+    public ResponseCacheInterceptor(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod) || !"GET".equals(request.getMethod())) {
+            return true;
+        }
+        CachedResponse cachedResponse = ((HandlerMethod) handler).getMethodAnnotation(CachedResponse.class);
+        if (cachedResponse == null) {
+            return true;
+        }
+        String requestKey = requestKeyOf(request);
+        byte[] body = responseCache.get(requestKey);
+        if (body != null) {
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            return false;
+        }
+        String dataKey = resolveKey(cachedResponse.key(), request);
+        request.setAttribute(REQUEST_KEY_ATTRIBUTE, requestKey);
+        request.setAttribute(DATA_KEY_ATTRIBUTE, dataKey);
+        request.setAttribute(GENERATION_ATTRIBUTE, responseCache.generation(dataKey));
+        return true;
+    }
+
+    //路径加上按名称排序的请求参数
+    private static String requestKeyOf(HttpServletRequest request) {
+        StringBuilder sb = new StringBuilder(request.getRequestURI());
+        Map<String, String[]> params = new TreeMap<>(request.getParameterMap());
+        char separator = '?';
+        for (Map.Entry<String, String[]> entry : params.entrySet()) {
+            for (String value : entry.getValue()) {
+                sb.append(separator).append(entry.getKey()).append('=').append(value);
+                separator = '&';
+            }
+        }
+        return sb.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String resolveKey(String template, HttpServletRequest request) {
+        Map<String, String> pathVariables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            String value = pathVariables == null ? null : pathVariables.get(name);
+            if (value == null) {
+                value = request.getParameter(name);
+            }
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(value == null ? "" : value));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+}
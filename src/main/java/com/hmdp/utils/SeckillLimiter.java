@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.resource.ResourceUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RATE_KEY;
+
+/**
+ * 秒杀接口的准入控制和限流，抢购开始时把超出处理能力的请求在访问Redis之前快速拒绝，
+ * 避免秒杀请求占满Tomcat线程和Redis连接池，拖垮其他接口。
+ * 1.准入控制：本节点正在处理（包括排队等待Redis连接）的秒杀请求数超过上限时直接拒绝；
+ * 2.本地限流：每个秒杀券一个无锁令牌桶，限制本节点每秒放行的请求数；
+ * 3.全局限流（可选）：所有节点共享Redis中的令牌桶，限制整个集群每秒放行的请求数。
+ * 限流参数在新增秒杀券时指定，从{@link SeckillVoucherRegistry}中读取。
+ */
+@Component
+public class SeckillLimiter {
+
+    private static final byte[] TOKEN_BUCKET_SCRIPT = ResourceUtil.readBytes("token_bucket.lua");
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<Long, Limits> limits = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder admissionRejected;
+    private final LongAdder rateLimited;
+
+    private volatile int maxInFlight;
+    private volatile int defaultRate;
+    //不在登记表中的秒杀券共用一个令牌桶，不按客户端传来的id各建一个，map的大小不超过已登记的秒杀券数
+    private volatile Limits defaultLimits = new Limits(null, null, 0);
+
+    public SeckillLimiter(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.admissionRejected = cacheMetrics.counter("hmdp_seckill_admission_rejected_total");
+        this.rateLimited = cacheMetrics.counter("hmdp_seckill_rate_limited_total");
+        cacheMetrics.gauge("hmdp_seckill_in_flight", inFlight::get);
+    }
+
+    //同时处理的秒杀请求数上限，0表示不限制
+    @Value("${hmdp.seckill.max-in-flight:0}")
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    //没有单独配置的秒杀券，本节点每秒放行的请求数，0表示不限制
+    @Value("${hmdp.seckill.rate-limit:0}")
+    public void setDefaultRate(int defaultRate) {
+        this.defaultRate = defaultRate;
+        this.defaultLimits = new Limits(null, bucketOf(defaultRate), 0);
+    }
+
+    /**
+     * 准入控制，成功时必须在finally中调用exit
+     * @throws TooManyRequestsException 正在处理的请求太多
+     */
+    public void enter() {
+        int current = inFlight.incrementAndGet();
+        int max = maxInFlight;
+        if (max > 0 && current > max) {
+            inFlight.decrementAndGet();
+            admissionRejected.increment();
+            throw new TooManyRequestsException("活动太火爆，请稍后再试");
+        }
+    }
+
+    public void exit() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 本地限流，再按需全局限流
+     * @param entry 秒杀券的元数据，为null时共用默认速率的本地令牌桶、不做全局限流
+     * @throws TooManyRequestsException 超过了限流速率
+     */
+    public void acquire(Long voucherId, SeckillVoucherRegistry.Entry entry) {
+        Limits limit = limitsOf(voucherId, entry);
+        if (limit.local != null && !limit.local.tryAcquire()) {
+            rateLimited.increment();
+            throw new TooManyRequestsException("活动太火爆，请稍后再试");
+        }
+        if (limit.globalRate > 0 && !tryAcquireGlobal(voucherId, limit.globalRate)) {
+            rateLimited.increment();
+            throw new TooManyRequestsException("活动太火爆，请稍后再试");
+        }
+    }
+
+    //元数据被替换（限流参数变化）时重建令牌桶
+    private Limits limitsOf(Long voucherId, SeckillVoucherRegistry.Entry entry) {
+        if (entry == null) {
+            return defaultLimits;
+        }
+        Limits limit = limits.get(voucherId);
+        if (limit != null && limit.source == entry) {
+            return limit;
+        }
+        TokenBucket local = bucketOf(entry.rateLimit > 0 ? entry.rateLimit : defaultRate);
+        limit = new Limits(entry, local, entry.globalRateLimit);
+        limits.put(voucherId, limit);
+        return limit;
+    }
+
+    //桶容量为1秒的请求数，允许抢购开始瞬间的突发
+    private static TokenBucket bucketOf(int rate) {
+        return rate > 0 ? new TokenBucket(rate, rate) : null;
+    }
+
+    private boolean tryAcquireGlobal(Long voucherId, int globalRate) {
+        long intervalMicros = Math.max(1L, 1_000_000L / globalRate);
+        Long result = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(
+                TOKEN_BUCKET_SCRIPT, ReturnType.INTEGER, 1,
+                rawKey(SECKILL_RATE_KEY + voucherId),
+                rawKey(String.valueOf(intervalMicros)),
+                rawKey(String.valueOf(globalRate))));
+        return result != null && result == 1L;
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Limits {
+        final SeckillVoucherRegistry.Entry source;
+        final TokenBucket local;
+        final int globalRate;
+
+        Limits(SeckillVoucherRegistry.Entry source, TokenBucket local, int globalRate) {
+            this.source = source;
+            this.local = local;
+            this.globalRate = globalRate;
+        }
+    }
+}
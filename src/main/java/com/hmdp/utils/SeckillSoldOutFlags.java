@@ -0,0 +1,91 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_RECHECK_INTERVAL;
+
+/**
+ * 秒杀券的本地售罄标记。
+ * 库存扣到0时在本地打标记并通过发布订阅广播给所有节点，之后的请求直接在本地拒绝，不再访问Redis；
+ * 补充库存或取消订单时清除标记并广播。
+ * 不同节点的"售罄"和"清除"消息可能乱序到达，所以标记每隔一段时间放一个请求去Redis确认，
+ * 确认有库存就清除本地标记，错误的标记最多影响一个复查周期。
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutFlags implements MessageListener {
+
+    private static final char SOLD_OUT = '+';
+    private static final char CLEARED = '-';
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    //优惠券id到下次复查的时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    /**
+     * 是否已经售罄。到了复查时间时，只有CAS成功的那一个请求返回false，去Redis确认库存
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long recheckAt = soldOut.get(voucherId);
+        if (recheckAt == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now < recheckAt) {
+            return true;
+        }
+        return !soldOut.replace(voucherId, recheckAt, now + SECKILL_SOLD_OUT_RECHECK_INTERVAL);
+    }
+
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.put(voucherId, System.currentTimeMillis() + SECKILL_SOLD_OUT_RECHECK_INTERVAL) == null) {
+            publish(SOLD_OUT, voucherId);
+        }
+    }
+
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        publish(CLEARED, voucherId);
+    }
+
+    //复查时发现还有库存，只清除本地标记
+    public void clearLocal(Long voucherId) {
+        soldOut.remove(voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long voucherId = Long.valueOf(body.substring(1));
+            if (body.charAt(0) == SOLD_OUT) {
+                soldOut.putIfAbsent(voucherId, System.currentTimeMillis() + SECKILL_SOLD_OUT_RECHECK_INTERVAL);
+            } else {
+                soldOut.remove(voucherId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("无法解析售罄消息：{}", body);
+        }
+    }
+
+    private void publish(char type, Long voucherId) {
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, type + voucherId.toString());
+        } catch (Exception e) {
+            //广播失败不影响本节点，其他节点会在下一次访问Redis时自己发现
+            log.warn("广播售罄消息失败，voucherId={}", voucherId, e);
+        }
+    }
+}
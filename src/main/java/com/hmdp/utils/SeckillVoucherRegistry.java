@@ -0,0 +1,162 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀券元数据的本地注册表：秒杀时间、每人限购数量和限流参数。
+ * 元数据发布时写入Redis（供下单的Lua脚本校验）和本节点的注册表，并广播给其他节点重新加载；
+ * 下单时先用本地的秒杀时间过滤，不在秒杀时间内的请求不需要任何I/O。
+ * 没收到广播的秒杀券在第一次访问时从Redis加载。
+ */
+@Slf4j
+@Component
+public class SeckillVoucherRegistry implements MessageListener {
+
+    private static final List<Object> FIELDS = Arrays.asList("begin", "end", "limit", "rate", "globalRate");
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    public SeckillVoucherRegistry(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        cacheMetrics.gauge("hmdp_seckill_registry_size", entries::size);
+    }
+
+    /**
+     * 发布秒杀券：元数据写入Redis和本地注册表并广播，同时写入库存
+     * @param overwriteStock true时覆盖Redis中的库存（新建秒杀券），false时只在库存不存在时写入（预热），
+     *                       避免用数据库中滞后的库存覆盖Redis中已经扣减过的库存
+     */
+    public void publish(SeckillVoucher seckillVoucher, boolean overwriteStock) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        Entry entry = new Entry(toEpochMilli(seckillVoucher.getBeginTime()), toEpochMilli(seckillVoucher.getEndTime()),
+                valueOrDefault(seckillVoucher.getUserLimit(), 1),
+                valueOrDefault(seckillVoucher.getRateLimit(), 0),
+                valueOrDefault(seckillVoucher.getGlobalRateLimit(), 0));
+        // 1.先写元数据再写库存，Lua脚本看到库存时一定能看到秒杀时间
+        Map<String, String> values = new HashMap<>(8);
+        values.put("begin", String.valueOf(entry.begin));
+        values.put("end", String.valueOf(entry.end));
+        values.put("limit", String.valueOf(entry.userLimit));
+        values.put("rate", String.valueOf(entry.rateLimit));
+        values.put("globalRate", String.valueOf(entry.globalRateLimit));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + voucherId, values);
+        String stock = seckillVoucher.getStock().toString();
+        if (overwriteStock) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, stock);
+        } else {
+            stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_STOCK_KEY + voucherId, stock);
+        }
+        // 2.更新本地注册表，内容有变化时通知其他节点
+        Entry previous = entries.put(voucherId, entry);
+        if (!entry.equals(previous)) {
+            stringRedisTemplate.convertAndSend(SECKILL_VOUCHER_CHANNEL, voucherId.toString());
+        }
+    }
+
+    /**
+     * 秒杀券的元数据，本地没有时从Redis加载
+     * @return Redis中也没有时返回null
+     */
+    public Entry get(Long voucherId) {
+        Entry entry = entries.get(voucherId);
+        return entry != null ? entry : load(voucherId);
+    }
+
+    //其他节点发布了秒杀券，从Redis重新加载
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            load(Long.valueOf(body));
+        } catch (RuntimeException e) {
+            log.warn("加载秒杀券{}失败", body, e);
+        }
+    }
+
+    private Entry load(Long voucherId) {
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(SECKILL_VOUCHER_KEY + voucherId, FIELDS);
+        if (values.get(0) == null) {
+            return null;
+        }
+        Entry entry = new Entry(toLong(values.get(0)), toLong(values.get(1)),
+                (int) toLong(values.get(2)), (int) toLong(values.get(3)), (int) toLong(values.get(4)));
+        //内容没变时保留原来的对象，SeckillLimiter按对象判断限流参数是否变化
+        Entry existing = entries.get(voucherId);
+        if (entry.equals(existing)) {
+            return existing;
+        }
+        entries.put(voucherId, entry);
+        return entry;
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    private static int valueOrDefault(Integer value, int defaultValue) {
+        return value != null && value > 0 ? value : defaultValue;
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time == null ? 0 : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /** 不可变的元数据，更新时整体替换 */
+    public static class Entry {
+        //秒杀开始、结束时间的毫秒数，0表示不限制
+        public final long begin;
+        public final long end;
+        public final int userLimit;
+        //单节点、所有节点合计每秒放行的请求数，0表示不限制（单节点使用默认值）
+        public final int rateLimit;
+        public final int globalRateLimit;
+
+        Entry(long begin, long end, int userLimit, int rateLimit, int globalRateLimit) {
+            this.begin = begin;
+            this.end = end;
+            this.userLimit = userLimit;
+            this.rateLimit = rateLimit;
+            this.globalRateLimit = globalRateLimit;
+        }
+
+        public boolean notStarted(long now) {
+            return begin > 0 && now < begin;
+        }
+
+        public boolean ended(long now) {
+            return end > 0 && now > end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return begin == other.begin && end == other.end && userLimit == other.userLimit
+                    && rateLimit == other.rateLimit && globalRateLimit == other.globalRateLimit;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(begin) * 31 + Long.hashCode(end);
+        }
+    }
+}
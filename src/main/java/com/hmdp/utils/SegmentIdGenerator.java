@@ -0,0 +1,186 @@
+package com.hmdp.utils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 号段模式的id生成器。
+ * 每次从号段来源（Redis计数器、数据库表等）租用一段连续的序列号，在内存里用CAS无锁发放；
+ * 当前号段用掉一定比例时异步预取下一段（双缓冲），正常情况下调用方不会等待租用。
+ * 号段的长度按消耗速度自适应：一段用得太快就加倍，太慢就减半。
+ * id的高31位是相对起始时间的秒数，低32位是序列号，整体按时间递增。
+ */
+public class SegmentIdGenerator {
+
+    //2022-01-01 00:00:00的秒数
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    private static final int COUNT_BITS = 32;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    /** 号段来源：为key租用step个连续的序列号，返回第一个序列号 */
+    @FunctionalInterface
+    public interface Allocator {
+        long allocate(String key, int step);
+    }
+
+    private final Allocator allocator;
+    private final Executor prefetchExecutor;
+    private final int minStep;
+    private final int maxStep;
+    private final long targetNanos;
+    private final double prefetchRatio;
+    private final Map<String, Buffer> buffers = new ConcurrentHashMap<>();
+
+    //租用号段的次数，以及号段用完时下一段还没准备好、调用方不得不等待的次数
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+
+    /**
+     * @param minStep 号段的初始（也是最小）长度
+     * @param maxStep 号段的最大长度
+     * @param targetMillis 期望一个号段能用多久，用来调整号段长度
+     * @param prefetchRatio 当前号段用掉多少比例时预取下一段
+     */
+    public SegmentIdGenerator(Allocator allocator, Executor prefetchExecutor,
+                              int minStep, int maxStep, long targetMillis, double prefetchRatio) {
+        this.allocator = allocator;
+        this.prefetchExecutor = prefetchExecutor;
+        this.minStep = minStep;
+        this.maxStep = maxStep;
+        this.targetNanos = targetMillis * 1_000_000L;
+        this.prefetchRatio = prefetchRatio;
+    }
+
+    public long nextId(String key) {
+        long timestamp = System.currentTimeMillis() / 1000 - BEGIN_TIMESTAMP;
+        return timestamp << COUNT_BITS | (nextSequence(key) & COUNT_MASK);
+    }
+
+    public long nextSequence(String key) {
+        Buffer buffer = buffers.computeIfAbsent(key, this::newBuffer);
+        for (;;) {
+            Segment segment = buffer.current;
+            long sequence = segment.cursor.getAndIncrement();
+            if (sequence < segment.end) {
+                //只有恰好拿到预取位置的那个线程触发预取
+                if (sequence == segment.prefetchAt) {
+                    prefetch(buffer);
+                }
+                return sequence;
+            }
+            switchSegment(buffer, segment);
+        }
+    }
+
+    public long leases() {
+        return leases.sum();
+    }
+
+    public long stalls() {
+        return stalls.sum();
+    }
+
+    private Buffer newBuffer(String key) {
+        Buffer buffer = new Buffer(key, minStep);
+        buffer.current = lease(buffer);
+        return buffer;
+    }
+
+    private void prefetch(Buffer buffer) {
+        CompletableFuture<Segment> future = new CompletableFuture<>();
+        if (!buffer.next.compareAndSet(null, future)) {
+            return;
+        }
+        try {
+            prefetchExecutor.execute(() -> {
+                try {
+                    future.complete(lease(buffer));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    //当前号段用完，切换到预取的号段；预取还没完成就等待，没有预取或预取失败就同步租用
+    private void switchSegment(Buffer buffer, Segment exhausted) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                return;
+            }
+            CompletableFuture<Segment> future = buffer.next.getAndSet(null);
+            Segment segment = null;
+            if (future != null) {
+                if (!future.isDone()) {
+                    stalls.increment();
+                }
+                try {
+                    segment = future.join();
+                } catch (CompletionException e) {
+                    segment = null;
+                }
+            } else {
+                stalls.increment();
+            }
+            buffer.current = segment != null ? segment : lease(buffer);
+        }
+    }
+
+    private Segment lease(Buffer buffer) {
+        int step = buffer.nextStep(minStep, maxStep, targetNanos);
+        long start = allocator.allocate(buffer.key, step);
+        leases.increment();
+        return new Segment(start, step, prefetchRatio);
+    }
+
+    private static class Buffer {
+        final String key;
+        volatile Segment current;
+        final AtomicReference<CompletableFuture<Segment>> next = new AtomicReference<>();
+        //预取任务在switchSegment持有buffer锁等待时执行，所以号段长度单独加锁
+        private final Object stepLock = new Object();
+        private int step;
+        private long lastLeaseNanos;
+
+        Buffer(String key, int step) {
+            this.key = key;
+            this.step = step;
+        }
+
+        int nextStep(int minStep, int maxStep, long targetNanos) {
+            synchronized (stepLock) {
+                long now = System.nanoTime();
+                if (lastLeaseNanos != 0) {
+                    long elapsed = now - lastLeaseNanos;
+                    if (elapsed < targetNanos && step < maxStep) {
+                        step = Math.min(step * 2, maxStep);
+                    } else if (elapsed > targetNanos * 2 && step > minStep) {
+                        step = Math.max(step / 2, minStep);
+                    }
+                }
+                lastLeaseNanos = now;
+                return step;
+            }
+        }
+    }
+
+    private static class Segment {
+        final AtomicLong cursor;
+        final long end;
+        final long prefetchAt;
+
+        Segment(long start, int step, double prefetchRatio) {
+            this.cursor = new AtomicLong(start);
+            this.end = start + step;
+            this.prefetchAt = start + (long) (step * prefetchRatio);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 分层时间轮。
+ * 第0层每格tickMs，每层wheelSize格，第i层每格是第i-1层转一圈的时长；
+ * 添加定时任务时按到期时间直接放进对应层的格子，O(1)，不需要排序；
+ * 第0层的一格时间完全过去后处理格子里的任务，任务不会提前到期；
+ * 进入上层新的一格时把这一格里的任务重新放到下层（降级）。
+ * 超出最高层范围的任务放在最高层最后才会轮到的格子里，轮到时再重新放置。
+ * 添加可以并发执行（读锁），推进时间独占（写锁），避免任务放进刚处理完的格子而被延后一圈。
+ */
+public class TimingWheel<T> {
+
+    private final long tickMs;
+    private final int wheelSize;
+    private final long[] ticks;
+    private final Queue<Entry<T>>[][] buckets;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong size = new AtomicLong();
+    //第一个还没有处理的格子的开始时间，按tickMs对齐
+    private volatile long currentTime;
+
+    /**
+     * @param wheelSize 每层的格子数，必须是2的幂
+     * @param levels 层数
+     * @param startMs 起始时间
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMs, int wheelSize, int levels, long startMs) {
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.ticks = new long[levels];
+        this.buckets = new Queue[levels][wheelSize];
+        long tick = tickMs;
+        for (int level = 0; level < levels; level++) {
+            ticks[level] = tick;
+            for (int slot = 0; slot < wheelSize; slot++) {
+                buckets[level][slot] = new ConcurrentLinkedQueue<>();
+            }
+            tick *= wheelSize;
+        }
+        this.currentTime = startMs - startMs % tickMs;
+    }
+
+    /**
+     * 添加定时任务
+     * @return false表示已经到期，没有放入时间轮，由调用方直接处理
+     */
+    public boolean add(T payload, long deadline) {
+        lock.readLock().lock();
+        try {
+            if (!place(new Entry<>(payload, deadline))) {
+                return false;
+            }
+            size.incrementAndGet();
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 把时间推进到now，返回期间到期的任务
+     */
+    public List<T> advance(long now) {
+        List<T> expired = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            while (currentTime + tickMs <= now) {
+                // 1.当前这一格的时间已经完全过去，格子里的任务全部到期
+                Queue<Entry<T>> bucket = buckets[0][slotOf(currentTime, 0)];
+                Entry<T> entry;
+                while ((entry = bucket.poll()) != null) {
+                    expired.add(entry.payload);
+                }
+                currentTime += tickMs;
+                // 2.从高到低，进入新一格的层把这一格里的任务降级到下层
+                for (int level = ticks.length - 1; level > 0; level--) {
+                    if (currentTime % ticks[level] == 0) {
+                        bucket = buckets[level][slotOf(currentTime, level)];
+                        while ((entry = bucket.poll()) != null) {
+                            if (!place(entry)) {
+                                expired.add(entry.payload);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        size.addAndGet(-expired.size());
+        return expired;
+    }
+
+    public long size() {
+        return size.get();
+    }
+
+    //到期时间已经过去的任务返回false，其余放进能容纳它的最低一层
+    private boolean place(Entry<T> entry) {
+        long now = currentTime;
+        if (entry.deadline < now) {
+            return false;
+        }
+        int top = ticks.length - 1;
+        for (int level = 0; level <= top; level++) {
+            //每层的范围从这一层当前格子的开始时间算起，转一圈正好覆盖wheelSize格，不会和当前格子重叠
+            long levelTime = now - now % ticks[level];
+            if (entry.deadline < levelTime + ticks[level] * wheelSize) {
+                buckets[level][slotOf(entry.deadline, level)].add(entry);
+                return true;
+            }
+        }
+        //超出最高层的范围：放在当前格子的前一格，转满一圈后轮到时重新放置
+        long topTime = now - now % ticks[top];
+        buckets[top][slotOf(topTime - ticks[top], top)].add(entry);
+        return true;
+    }
+
+    private int slotOf(long time, int level) {
+        return (int) ((time / ticks[level]) & (wheelSize - 1));
+    }
+
+    private static class Entry<T> {
+        final T payload;
+        final long deadline;
+
+        Entry(T payload, long deadline) {
+            this.payload = payload;
+            this.deadline = deadline;
+        }
+    }
+}
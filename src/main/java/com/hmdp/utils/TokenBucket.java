@@ -0,0 +1,40 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁的令牌桶，用GCRA（通用信元速率算法）实现：
+ * 只记录一个"理论到达时间"tat，每放行一个请求tat往后推一个令牌的间隔，
+ * tat超前当前时间超过桶容量对应的时长就拒绝。一次CAS完成，不需要后台线程补充令牌。
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final AtomicLong tat;
+
+    /**
+     * @param permitsPerSecond 每秒放行的请求数
+     * @param capacity 桶容量，即允许的最大突发请求数
+     */
+    public TokenBucket(double permitsPerSecond, int capacity) {
+        this.intervalNanos = Math.max(1L, (long) (1_000_000_000L / permitsPerSecond));
+        this.capacityNanos = intervalNanos * Math.max(1, capacity);
+        //初始时桶是满的
+        this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        for (;;) {
+            long now = System.nanoTime();
+            long current = tat.get();
+            long next = (current - now < 0 ? now : current) + intervalNanos;
+            if (next - now > capacityNanos) {
+                return false;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.hmdp.utils;
+
+/**
+ * 请求被限流或准入控制拒绝，由WebExceptionAdvice转换为HTTP 429
+ */
+public class TooManyRequestsException extends RuntimeException {
+
+    public TooManyRequestsException(String message) {
+        super(message, null, false, false);
+    }
+}
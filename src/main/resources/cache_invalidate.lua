@@ -0,0 +1,11 @@
+-- 删除缓存并记录新的版本号，之后版本号更旧的写入都会被cache_set_if_newer.lua拒绝
+-- KEYS[1] 版本号key，KEYS[2..n] 要删除的缓存key
+-- ARGV[1] 新版本号，ARGV[2] 版本号保留的毫秒数
+local current = redis.call('get', KEYS[1])
+if (not current) or tonumber(current) < tonumber(ARGV[1]) then
+    redis.call('set', KEYS[1], ARGV[1], 'px', ARGV[2])
+end
+for i = 2, #KEYS do
+    redis.call('del', KEYS[i])
+end
+return 1
@@ -0,0 +1,30 @@
+-- 带版本号写缓存：缓存中记录的版本号比要写入的新时拒绝写入，防止并发回源把旧数据写回缓存
+-- 持有重建锁的写入同时检查fencing token：锁已经过期或被其他请求重新获取（token变了）时拒绝写入，
+-- 防止回源途中停顿（GC、网络）导致锁过期的旧持有者覆盖新持有者的结果
+-- KEYS[1] 缓存key，KEYS[2] 版本号key，KEYS[3] 锁key（可选，不传时不检查token）
+-- ARGV[1] 版本号（空字符串表示没有版本号），ARGV[2] 缓存值，ARGV[3] 缓存TTL毫秒（0表示不过期），
+-- ARGV[4] 版本号key比缓存多保留的毫秒数，ARGV[5] 持有锁时获取到的fencing token
+-- 返回值：1写入成功，0缓存中已经是更新的版本，-1锁已经不属于这个token
+if KEYS[3] and redis.call('hget', KEYS[3], '__fence') ~= ARGV[5] then
+    return -1
+end
+local versioned = ARGV[1] ~= ''
+if versioned then
+    local current = redis.call('get', KEYS[2])
+    if current and tonumber(current) > tonumber(ARGV[1]) then
+        return 0
+    end
+end
+local ttl = tonumber(ARGV[3])
+if ttl > 0 then
+    redis.call('set', KEYS[1], ARGV[2], 'px', ttl)
+    if versioned then
+        redis.call('set', KEYS[2], ARGV[1], 'px', ttl + tonumber(ARGV[4]))
+    end
+else
+    redis.call('set', KEYS[1], ARGV[2])
+    if versioned then
+        redis.call('set', KEYS[2], ARGV[1])
+    end
+end
+return 1
@@ -0,0 +1,26 @@
+-- 领取到期的延时任务：把分数改成now+租期，租期内其他节点不会重复领取，
+-- 处理成功后由领取者删除，领取者宕机时租期过后会被重新领取
+-- KEYS[1] 延时任务的zset，分数是到期时间（毫秒）
+-- ARGV[1] 当前时间，ARGV[2] 租期毫秒，ARGV[3] 最多领取的个数，ARGV[4...] 指定的成员（可选）
+-- 返回值：领取到的成员
+local now = tonumber(ARGV[1])
+local leaseUntil = now + tonumber(ARGV[2])
+local claimed = {}
+if #ARGV > 3 then
+    -- 时间轮到期的成员：逐个确认还在并且已经到期
+    for i = 4, #ARGV do
+        local score = redis.call('zscore', KEYS[1], ARGV[i])
+        if score and tonumber(score) <= now then
+            redis.call('zadd', KEYS[1], leaseUntil, ARGV[i])
+            claimed[#claimed + 1] = ARGV[i]
+        end
+    end
+    return claimed
+end
+-- 兜底轮询：按分数范围领取
+local members = redis.call('zrangebyscore', KEYS[1], '-inf', now, 'LIMIT', 0, tonumber(ARGV[3]))
+for i = 1, #members do
+    redis.call('zadd', KEYS[1], leaseUntil, members[i])
+    claimed[#claimed + 1] = members[i]
+end
+return claimed
@@ -0,0 +1,17 @@
+-- 获取可重入锁：锁不存在时创建并分配新的fencing token，当前线程已持有时重入次数加1
+-- KEYS[1] 锁key，KEYS[2] fencing token计数器
+-- ARGV[1] 持有者（节点id:线程id），ARGV[2] 租期毫秒
+-- 返回值：成功时返回fencing token（正数），失败时返回锁剩余时间毫秒的相反数
+if redis.call('exists', KEYS[1]) == 0 then
+    local token = redis.call('incr', KEYS[2])
+    redis.call('hset', KEYS[1], ARGV[1], 1)
+    redis.call('hset', KEYS[1], '__fence', token)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return token
+end
+if redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return tonumber(redis.call('hget', KEYS[1], '__fence'))
+end
+return -math.max(redis.call('pttl', KEYS[1]), 1)
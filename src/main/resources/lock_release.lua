@@ -0,0 +1,14 @@
+-- 释放可重入锁：只有持有者能释放，重入次数减到0时删除锁并广播，唤醒其他节点的等待者
+-- KEYS[1] 锁key
+-- ARGV[1] 持有者（节点id:线程id），ARGV[2] 租期毫秒，ARGV[3] 广播的channel
+-- 返回值：1锁已释放，0重入次数减1，-1不是持有者（锁已经过期或被其他人获取）
+if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then
+    return -1
+end
+if redis.call('hincrby', KEYS[1], ARGV[1], -1) > 0 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 0
+end
+redis.call('del', KEYS[1])
+redis.call('publish', ARGV[3], KEYS[1])
+return 1
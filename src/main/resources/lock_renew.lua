@@ -0,0 +1,9 @@
+-- 看门狗续期：仍然是持有者时重置租期
+-- KEYS[1] 锁key
+-- ARGV[1] 持有者（节点id:线程id），ARGV[2] 租期毫秒
+-- 返回值：1续期成功，0已经不是持有者
+if redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
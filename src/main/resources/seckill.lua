@@ -0,0 +1,36 @@
+-- 秒杀下单：原子地校验秒杀时间、库存和每人限购数量，扣减Redis库存并把订单写入消息队列
+-- KEYS[1] 库存key，KEYS[2] 秒杀券元数据key，KEYS[3] 用户已购数量key，KEYS[4] 订单stream
+-- ARGV[1] 优惠券id，ARGV[2] 用户id，ARGV[3] 订单id
+-- 秒杀时间和Redis服务器时间比较，不使用调用方传入的时间，避免各节点时钟不一致
+-- 返回值：0成功，1库存不足，2超过限购数量，3秒杀尚未开始，4秒杀已经结束，5秒杀券不存在，6成功并且抢到了最后一件
+local stock = redis.call('get', KEYS[1])
+if not stock then
+    return 5
+end
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+-- 秒杀时间为0表示不限制
+local meta = redis.call('hmget', KEYS[2], 'begin', 'end', 'limit')
+local begin = tonumber(meta[1] or 0)
+local finish = tonumber(meta[2] or 0)
+if begin > 0 and now < begin then
+    return 3
+end
+if finish > 0 and now > finish then
+    return 4
+end
+if tonumber(stock) <= 0 then
+    return 1
+end
+local limit = tonumber(meta[3] or 1)
+if tonumber(redis.call('hget', KEYS[3], ARGV[2]) or 0) >= limit then
+    return 2
+end
+local remaining = redis.call('decr', KEYS[1])
+redis.call('hincrby', KEYS[3], ARGV[2], 1)
+redis.call('xadd', KEYS[4], '*', 'userId', ARGV[2], 'voucherId', ARGV[1], 'id', ARGV[3])
+if remaining == 0 then
+    return 6
+end
+return 0
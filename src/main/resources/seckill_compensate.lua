@@ -0,0 +1,14 @@
+-- 补偿没有写入数据库的秒杀订单，或者归还超时取消的订单占用的库存，每个订单只执行一次
+-- KEYS[1] 补偿标记，KEYS[2] 库存，KEYS[3] 用户的购买数量
+-- ARGV[1] 标记的过期时间（秒），ARGV[2] 用户id，ARGV[3] 归还的库存，ARGV[4] 用户购买数量的变化
+-- 返回值：1补偿成功，0已经补偿过（标记key由调用方按订单id区分两种用途）
+if not redis.call('set', KEYS[1], '1', 'NX', 'EX', ARGV[1]) then
+    return 0
+end
+if tonumber(ARGV[3]) ~= 0 then
+    redis.call('incrby', KEYS[2], ARGV[3])
+end
+if tonumber(ARGV[4]) ~= 0 then
+    redis.call('hincrby', KEYS[3], ARGV[2], ARGV[4])
+end
+return 1
@@ -0,0 +1,19 @@
+-- 所有节点共享的令牌桶（GCRA），时间取Redis服务器时间，避免各节点时钟不一致
+-- KEYS[1] 令牌桶key
+-- ARGV[1] 每个令牌的间隔微秒，ARGV[2] 桶容量
+-- 返回值：1放行，0限流
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+local interval = tonumber(ARGV[1])
+local capacity = tonumber(ARGV[2])
+local tat = tonumber(redis.call('get', KEYS[1]) or now)
+if tat < now then
+    tat = now
+end
+local next = tat + interval
+if next - now > capacity * interval then
+    return 0
+end
+redis.call('set', KEYS[1], string.format('%.0f', next), 'px', math.ceil((next - now) / 1000) + 1)
+return 1
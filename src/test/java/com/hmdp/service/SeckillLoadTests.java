@@ -0,0 +1,111 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀下单压测：USERS个用户每人并发抢REPEAT次，库存STOCK。
+ * 校验接口返回、Redis和数据库三处都没有超卖、没有一人多单。需要连接application.yaml中配置的Redis和MySQL，
+ * 默认不运行，用 mvn test -Dtest.excludedGroups=redis -Dgroups=load 运行。
+ */
+@Slf4j
+@Tag("load")
+@SpringBootTest
+class SeckillLoadTests {
+
+    private static final int STOCK = 100;
+    private static final int USERS = 1000;
+    private static final int REPEAT = 2;
+    private static final int THREADS = 200;
+
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void noOversellAndOneOrderPerUser() throws InterruptedException {
+        Voucher voucher = new Voucher()
+                .setShopId(1L).setTitle("压测秒杀券").setPayValue(8000L).setActualValue(10000L)
+                .setType(1).setStatus(1).setStock(STOCK)
+                .setBeginTime(LocalDateTime.now().minusHours(1))
+                .setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        Long voucherId = voucher.getId();
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(USERS * REPEAT);
+        AtomicInteger success = new AtomicInteger();
+        Set<Long> buyers = ConcurrentHashMap.newKeySet();
+        long begin = System.nanoTime();
+        for (int i = 0; i < USERS * REPEAT; i++) {
+            long userId = 1_000_000L + i % USERS;
+            pool.submit(() -> {
+                UserDTO user = new UserDTO();
+                user.setId(userId);
+                UserHolder.saveUser(user);
+                try {
+                    Result result = voucherOrderService.seckillVoucher(voucherId);
+                    if (result.getSuccess()) {
+                        success.incrementAndGet();
+                        buyers.add(userId);
+                    }
+                } finally {
+                    UserHolder.removeUser();
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        log.info("requests={} success={} elapsed={}ms qps={}", USERS * REPEAT, success.get(),
+                TimeUnit.NANOSECONDS.toMillis(elapsed), (long) (USERS * REPEAT * 1e9 / elapsed));
+
+        // 1.接口层：成功数等于库存，每个用户最多成功一次
+        assertEquals(STOCK, success.get());
+        assertEquals(STOCK, buyers.size());
+        assertEquals("0", stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + voucherId));
+
+        // 2.等待后台线程把订单写入数据库
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (voucherOrderService.query().eq("voucher_id", voucherId).count() < STOCK
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        List<VoucherOrder> orders = voucherOrderService.query().eq("voucher_id", voucherId).list();
+        assertEquals(STOCK, orders.size());
+        Set<Long> orderUsers = orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        assertEquals(STOCK, orderUsers.size());
+        assertTrue(buyers.containsAll(orderUsers));
+        assertEquals(0, seckillVoucherService.getById(voucherId).getStock());
+    }
+}
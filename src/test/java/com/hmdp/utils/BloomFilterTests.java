@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 布隆过滤器：插入过的元素一定命中，误判率接近构造时的期望值，Long和BigInteger形式的同一个id结果一致，并发插入不丢位。
+ */
+class BloomFilterTests {
+
+    private static final int INSERTIONS = 100000;
+    private static final double FPP = 0.01;
+
+    @Test
+    void noFalseNegatives() {
+        BloomFilter filter = new BloomFilter(INSERTIONS, FPP);
+        for (long id = 1; id <= INSERTIONS; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= INSERTIONS; id++) {
+            assertTrue(filter.mightContain(id), "插入过的id没有命中：" + id);
+        }
+    }
+
+    @Test
+    void falsePositiveRateIsCloseToExpected() {
+        BloomFilter filter = new BloomFilter(INSERTIONS, FPP);
+        // 数据库自增id是连续的，用连续的id插入，用另一段连续的id检查误判
+        for (long id = 1; id <= INSERTIONS; id++) {
+            filter.put(id);
+        }
+        int falsePositives = 0;
+        int probes = 200000;
+        for (long id = INSERTIONS + 1; id <= INSERTIONS + probes; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / probes;
+        assertTrue(rate < FPP * 1.5, "误判率过高：" + rate);
+    }
+
+    @Test
+    void longAndBigIntegerIdsAreInterchangeable() {
+        BloomFilter filter = new BloomFilter(1000, FPP);
+        // 预热时从数据库读到的是Long，请求路径上的id可能是BigInteger，反过来也一样
+        filter.put(42L);
+        filter.put(new BigInteger("9007199254740993"));
+        assertTrue(filter.mightContain(new BigInteger("42")));
+        assertTrue(filter.mightContain("42"));
+        assertTrue(filter.mightContain(9007199254740993L));
+        assertFalse(filter.mightContain(43L));
+        assertFalse(filter.mightContain(new BigInteger("43")));
+    }
+
+    @Test
+    void concurrentPutsLoseNoBits() throws Exception {
+        int threads = 8;
+        BloomFilter filter = new BloomFilter(INSERTIONS, FPP);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            // 各线程交错插入，同一个long字里的位会被不同线程同时设置
+            futures.add(executor.submit(() -> {
+                for (long id = offset; id < INSERTIONS; id += threads) {
+                    filter.put(id);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        for (long id = 0; id < INSERTIONS; id++) {
+            assertTrue(filter.mightContain(id), "并发插入的id没有命中：" + id);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 缓存编解码器的对比测试：校验往返一致，并在日志中输出每条数据的字节数和编码/解码耗时（ns/op）。
+ * 只依赖编解码器本身，不需要启动Spring容器。带benchmark标签，默认不运行；格式兼容性的测试见BinaryCacheCodecTests。
+ */
+@Slf4j
+@Tag("benchmark")
+class CacheCodecBenchmarkTests {
+
+    private static final int WARM_UP = 20000;
+    private static final int ITERATIONS = 200000;
+
+    private final CacheCodec json = new JsonCacheCodec();
+    private final CacheCodec binary = new BinaryCacheCodec(RedisConstants.CACHE_COMPRESS_THRESHOLD);
+
+    @Test
+    void benchmarkShop() {
+        compare("Shop", shop(), Shop.class);
+    }
+
+    @Test
+    void benchmarkShopType() {
+        ShopType shopType = new ShopType()
+                .setId(1L).setName("美食").setIcon("/types/ms.png").setSort(1)
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 20, 17, 47))
+                .setUpdateTime(LocalDateTime.of(2021, 12, 23, 11, 24, 31));
+        compare("ShopType", shopType, ShopType.class);
+    }
+
+    @Test
+    void benchmarkVoucher() {
+        compare("Voucher", voucher(), Voucher.class);
+    }
+
+    @Test
+    void benchmarkRedisData() {
+        RedisData<Shop> redisData = new RedisData<>();
+        redisData.setData(shop());
+        redisData.setExpireTime(LocalDateTime.of(2022, 1, 1, 0, 0));
+        redisData.setDelta(35L);
+        byte[] bytes = binary.encode(redisData);
+        RedisData<?> decoded = binary.decode(bytes, RedisData.class);
+        assertEquals(redisData, decoded);
+        log.info("{} json={}B binary={}B", "RedisData", json.encode(redisData).length, bytes.length);
+        measure("RedisData", binary, redisData, RedisData.class);
+    }
+
+    private <T> void compare(String name, T value, Class<T> type) {
+        byte[] jsonBytes = json.encode(value);
+        byte[] binaryBytes = binary.encode(value);
+        // 二进制格式要完整还原，JSON格式的LocalDateTime往返受时区影响，这里只比较二进制
+        assertEquals(value, binary.decode(binaryBytes, type));
+        log.info("{} json={}B binary={}B", name, jsonBytes.length, binaryBytes.length);
+        measure(name, json, value, type);
+        measure(name, binary, value, type);
+    }
+
+    private <T> void measure(String name, CacheCodec codec, T value, Class<T> type) {
+        byte[] bytes = codec.encode(value);
+        for (int i = 0; i < WARM_UP; i++) {
+            codec.decode(codec.encode(value), type);
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            bytes = codec.encode(value);
+        }
+        long encodeNs = (System.nanoTime() - begin) / ITERATIONS;
+        begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(bytes, type);
+        }
+        long decodeNs = (System.nanoTime() - begin) / ITERATIONS;
+        log.info("{} {} encode={}ns/op decode={}ns/op", name, codec.getClass().getSimpleName(), encodeNs, decodeNs);
+    }
+
+    private static Voucher voucher() {
+        return new Voucher()
+                .setId(2L).setShopId(1L).setTitle("100元代金券").setSubTitle("周一至周五均可使用")
+                .setRules("全场通用\\n无需预约\\n可无限叠加\\不兑现、不找零\\n仅限堂食")
+                .setPayValue(8000L).setActualValue(10000L).setType(1).setStatus(1).setStock(100)
+                .setBeginTime(LocalDateTime.of(2022, 1, 26, 10, 9, 17))
+                .setEndTime(LocalDateTime.of(2022, 1, 26, 23, 9, 4))
+                .setRateLimit(500).setGlobalRateLimit(2000).setUserLimit(2);
+    }
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L).setName("103茶餐厅").setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,"
+                        + "https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L)
+                .setSold(4215).setComments(3035).setScore(37).setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19))
+                .setVersion(7L);
+    }
+}
@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 热点key探测：Count-Min Sketch不会低估访问次数，衰减时计数减半，达到阈值晋升、衰减后低于一半阈值降级，Top-K按次数排序。
+ */
+class HotKeyDetectorTests {
+
+    private static final int WIDTH = 1024;
+    private static final int TOP_K = 3;
+    private static final long THRESHOLD = 100;
+
+    @Test
+    void promotedWhenReachingThreshold() {
+        HotKeyDetector detector = new HotKeyDetector(WIDTH, TOP_K, THRESHOLD);
+        for (int i = 1; i < THRESHOLD; i++) {
+            assertFalse(detector.record("shop:1"));
+        }
+        assertFalse(detector.isHot("shop:1"));
+        assertTrue(detector.record("shop:1"));
+        assertTrue(detector.isHot("shop:1"));
+        assertFalse(detector.isHot("shop:2"));
+    }
+
+    @Test
+    void sketchNeverUnderestimates() {
+        HotKeyDetector detector = new HotKeyDetector(WIDTH, TOP_K, Long.MAX_VALUE);
+        // 远多于计数器个数的key，必然有冲突
+        int keys = WIDTH * 8;
+        for (int i = 0; i < keys; i++) {
+            for (int j = 0; j <= i % 5; j++) {
+                detector.record("shop:" + i);
+            }
+        }
+        for (int i = 0; i < keys; i++) {
+            assertTrue(detector.estimate("shop:" + i) >= i % 5 + 1, "访问次数被低估：shop:" + i);
+        }
+    }
+
+    @Test
+    void decayHalvesCountsAndDemotesColdKeys() {
+        HotKeyDetector detector = new HotKeyDetector(WIDTH, TOP_K, THRESHOLD);
+        record(detector, "shop:1", THRESHOLD);
+        assertEquals(THRESHOLD, detector.estimate("shop:1"));
+
+        // 1.减半到降级阈值（晋升阈值的一半），仍然是热点
+        assertTrue(detector.decay().isEmpty());
+        assertEquals(THRESHOLD / 2, detector.estimate("shop:1"));
+        assertTrue(detector.isHot("shop:1"));
+        // 2.再减半就低于降级阈值，被降级
+        assertEquals(Collections.singletonList("shop:1"), detector.decay());
+        assertEquals(THRESHOLD / 4, detector.estimate("shop:1"));
+        assertFalse(detector.isHot("shop:1"));
+        // 3.降级后要重新累计到晋升阈值
+        record(detector, "shop:1", THRESHOLD - THRESHOLD / 4 - 1);
+        assertFalse(detector.isHot("shop:1"));
+        assertTrue(detector.record("shop:1"));
+    }
+
+    @Test
+    void manualPromotionSurvivesOneDecay() {
+        HotKeyDetector detector = new HotKeyDetector(WIDTH, TOP_K, THRESHOLD);
+        detector.promote("shop:1");
+        assertTrue(detector.isHot("shop:1"));
+        assertTrue(detector.decay().isEmpty());
+        assertTrue(detector.isHot("shop:1"));
+        // 这一个周期内没有访问，下一次衰减时降级
+        assertEquals(Collections.singletonList("shop:1"), detector.decay());
+        assertFalse(detector.isHot("shop:1"));
+    }
+
+    @Test
+    void topKIsOrderedByCount() {
+        HotKeyDetector detector = new HotKeyDetector(WIDTH, TOP_K, THRESHOLD);
+        List<String> keys = Arrays.asList("shop:5", "shop:4", "shop:3", "shop:2", "shop:1");
+        long[] counts = {55, 60, 70, 80, 90};
+        for (int i = 0; i < keys.size(); i++) {
+            record(detector, keys.get(i), counts[i]);
+        }
+
+        Map<String, Long> top = detector.topK();
+        assertEquals(Arrays.asList("shop:1", "shop:2", "shop:3"), new ArrayList<>(top.keySet()));
+        assertEquals(90L, top.get("shop:1"));
+        assertEquals(70L, top.get("shop:3"));
+    }
+
+    @Test
+    void decayPrunesCandidatesThatCooledDown() {
+        HotKeyDetector detector = new HotKeyDetector(WIDTH, TOP_K, THRESHOLD);
+        record(detector, "shop:1", 120);
+        record(detector, "shop:2", 60);
+        detector.decay();
+        assertEquals(Arrays.asList("shop:1", "shop:2"), new ArrayList<>(detector.topK().keySet()));
+        assertEquals(60L, detector.topK().get("shop:1"));
+        // shop:1减半到30，仍然是候选；shop:2减半到15，低于降级阈值的一半，从候选中移除
+        detector.decay();
+        assertEquals(Collections.singletonList("shop:1"), new ArrayList<>(detector.topK().keySet()));
+    }
+
+    private static void record(HotKeyDetector detector, String key, long times) {
+        for (long i = 0; i < times; i++) {
+            detector.record(key);
+        }
+    }
+}
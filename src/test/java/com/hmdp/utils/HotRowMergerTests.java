@@ -0,0 +1,185 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 热点行合并：并发请求被合并、同一行的写入不会并发执行、库存不足时按到达顺序部分成功、写入失败时整批失败。
+ * 用内存中的计数器模拟库存行，不需要数据库。
+ */
+@Slf4j
+class HotRowMergerTests {
+
+    private static final Long KEY = 1L;
+
+    @Test
+    void concurrentDecrementsAreMerged() throws Exception {
+        int threads = 32;
+        int requestsPerThread = 500;
+        int initialStock = 10000;
+        AtomicInteger stock = new AtomicInteger(initialStock);
+        AtomicInteger writes = new AtomicInteger();
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxInside = new AtomicInteger();
+        HotRowMerger<Integer> merger = new HotRowMerger<>((key, items) -> {
+            maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+            writes.incrementAndGet();
+            sleep(1);
+            int n = Math.min(stock.get(), items.size());
+            stock.addAndGet(-n);
+            inside.decrementAndGet();
+            return n;
+        }, 500, new CacheMetrics(), "test");
+
+        AtomicInteger granted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < requestsPerThread; i++) {
+                    granted.addAndGet(merger.submit(KEY, Collections.singletonList(i)).join());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        int requests = threads * requestsPerThread;
+        log.info("requests={} writes={} granted={}", requests, writes.get(), granted.get());
+        assertEquals(initialStock, granted.get());
+        assertEquals(0, stock.get());
+        assertEquals(1, maxInside.get(), "同一行的写入不能并发执行");
+        assertTrue(writes.get() * 2 < requests, "并发的请求应该被合并");
+    }
+
+    @Test
+    void partialSuccessFollowsArrivalOrder() throws Exception {
+        AtomicInteger stock = new AtomicInteger(5);
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        HotRowMerger<Integer> merger = new HotRowMerger<>((key, items) -> {
+            batchSizes.add(items.size());
+            firstWrite.countDown();
+            await(release);
+            int n = Math.min(stock.get(), items.size());
+            stock.addAndGet(-n);
+            return n;
+        }, 100, new CacheMetrics(), "test");
+
+        // 1.第一个请求成为leader，阻塞在写入中
+        CompletableFuture<CompletableFuture<Integer>> leader =
+                CompletableFuture.supplyAsync(() -> merger.submit(KEY, Collections.singletonList(0)));
+        assertTrue(firstWrite.await(5, TimeUnit.SECONDS));
+        // 2.leader写入期间到达的请求排队，合并成下一批
+        CompletableFuture<Integer> first = merger.submit(KEY, Arrays.asList(1, 2, 3));
+        CompletableFuture<Integer> second = merger.submit(KEY, Arrays.asList(4, 5, 6));
+        CompletableFuture<Integer> third = merger.submit(KEY, Arrays.asList(7, 8));
+        assertFalse(first.isDone());
+        release.countDown();
+
+        assertEquals(1, leader.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        // 3.剩余4个库存按到达顺序分配：3 + 1 + 0
+        assertEquals(3, first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, second.get(5, TimeUnit.SECONDS));
+        assertEquals(0, third.get(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 8), batchSizes);
+        assertEquals(0, stock.get());
+    }
+
+    @Test
+    void batchSizeIsBounded() throws Exception {
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        HotRowMerger<Integer> merger = new HotRowMerger<>((key, items) -> {
+            batchSizes.add(items.size());
+            firstWrite.countDown();
+            await(release);
+            return items.size();
+        }, 4, new CacheMetrics(), "test");
+
+        CompletableFuture<CompletableFuture<Integer>> leader =
+                CompletableFuture.supplyAsync(() -> merger.submit(KEY, Collections.singletonList(0)));
+        assertTrue(firstWrite.await(5, TimeUnit.SECONDS));
+        List<CompletableFuture<Integer>> queued = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            queued.add(merger.submit(KEY, Arrays.asList(i, i)));
+        }
+        release.countDown();
+        leader.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<Integer> future : queued) {
+            assertEquals(2, future.get(5, TimeUnit.SECONDS));
+        }
+        // 一次最多合并4个元素，请求不会被拆开
+        assertEquals(Arrays.asList(1, 4, 4, 2), batchSizes);
+    }
+
+    @Test
+    void failureFailsTheWholeBatchAndReleasesTheRow() throws Exception {
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        HotRowMerger<Integer> merger = new HotRowMerger<>((key, items) -> {
+            int call = calls.incrementAndGet();
+            if (call == 1) {
+                firstWrite.countDown();
+                await(release);
+                return items.size();
+            }
+            if (call == 2) {
+                throw new IllegalStateException("写入失败");
+            }
+            return items.size();
+        }, 100, new CacheMetrics(), "test");
+
+        CompletableFuture<CompletableFuture<Integer>> leader =
+                CompletableFuture.supplyAsync(() -> merger.submit(KEY, Collections.singletonList(0)));
+        assertTrue(firstWrite.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Integer> first = merger.submit(KEY, Collections.singletonList(1));
+        CompletableFuture<Integer> second = merger.submit(KEY, Collections.singletonList(2));
+        release.countDown();
+
+        assertEquals(1, leader.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        assertThrows(CompletionException.class, first::join);
+        assertThrows(CompletionException.class, second::join);
+        // 失败之后这一行可以继续写入
+        assertEquals(1, merger.submit(KEY, Collections.singletonList(3)).get(5, TimeUnit.SECONDS));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 延迟直方图：桶首尾相接、互不重叠，每个值落在上界不小于它的桶里，相对误差不超过12.5%，分位数取所在桶的上界。
+ */
+class LatencyHistogramTests {
+
+    //超过2^41-1（指数大于40）的值都记到最后一个桶
+    private static final int LAST_INDEX = LatencyHistogram.indexOf(Long.MAX_VALUE);
+
+    @Test
+    void smallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, LatencyHistogram.indexOf(value));
+            assertEquals(value, LatencyHistogram.upperBoundOf(value));
+        }
+        assertEquals(8, LatencyHistogram.indexOf(8));
+    }
+
+    @Test
+    void bucketsAreContiguous() {
+        for (int index = 0; index < LAST_INDEX; index++) {
+            long upper = LatencyHistogram.upperBoundOf(index);
+            assertEquals(index, LatencyHistogram.indexOf(upper), "上界不在自己的桶里：" + index);
+            assertEquals(index + 1, LatencyHistogram.indexOf(upper + 1), "上界加1不在下一个桶：" + index);
+        }
+    }
+
+    @Test
+    void powerOfTwoBoundaries() {
+        for (int exponent = 3; exponent <= 40; exponent++) {
+            long power = 1L << exponent;
+            int index = LatencyHistogram.indexOf(power);
+            // 每个2的幂是一个新区间的第一个子桶
+            assertEquals(0, index % 8, "2^" + exponent);
+            assertEquals(index - 1, LatencyHistogram.indexOf(power - 1), "2^" + exponent + "-1");
+        }
+    }
+
+    @Test
+    void overflowGoesToLastBucket() {
+        assertEquals(LAST_INDEX, LatencyHistogram.indexOf((1L << 41) - 1));
+        assertEquals(LAST_INDEX, LatencyHistogram.indexOf(1L << 41));
+        assertEquals(LAST_INDEX, LatencyHistogram.indexOf(1L << 62));
+        assertEquals((1L << 41) - 1, LatencyHistogram.upperBoundOf(LAST_INDEX));
+    }
+
+    @Test
+    void relativeErrorIsBounded() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            long value = 8 + (random.nextLong() >>> (23 + random.nextInt(40)));
+            if (value >= 1L << 41) {
+                continue;
+            }
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(value));
+            assertTrue(upper >= value, "上界小于值：" + value);
+            assertTrue(upper - value < value / 8.0, "相对误差超过12.5%：" + value + " -> " + upper);
+        }
+    }
+
+    @Test
+    void quantileReturnsBucketUpperBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.quantile(0.99));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(500500, histogram.sum());
+        long p50 = histogram.quantile(0.5);
+        assertEquals(LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(500)), p50);
+        assertTrue(p50 >= 500 && p50 < 500 * 1.125);
+        assertEquals(LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(1000)), histogram.quantile(1.0));
+        assertEquals(1, histogram.quantile(0.001));
+    }
+
+    @Test
+    void negativeValuesAreRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.sum());
+        assertEquals(0, histogram.quantile(1.0));
+    }
+}
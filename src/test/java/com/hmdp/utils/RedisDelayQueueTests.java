@@ -0,0 +1,198 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.DELAY_QUEUE_BATCH_SIZE;
+import static com.hmdp.utils.RedisConstants.DELAY_QUEUE_CLAIM_LEASE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * 延时队列的领取和租期：只处理Lua脚本领取到的任务，处理成功后从zset删除，处理失败时留在zset里等租期过后重新领取。
+ * 前几个用例mock掉Redis，只校验Java这一侧；带redis标签的用例需要本地Redis（-Dredis.host、-Dredis.port），校验脚本的租期语义。
+ */
+class RedisDelayQueueTests {
+
+    private static final String KEY = "test:delay";
+
+    private StringRedisTemplate template;
+    private ZSetOperations<String, String> zSet;
+    private final List<List<String>> handled = new ArrayList<>();
+    private RedisDelayQueue queue;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        template = mock(StringRedisTemplate.class);
+        zSet = mock(ZSetOperations.class);
+        when(template.opsForZSet()).thenReturn(zSet);
+        queue = new RedisDelayQueue(template, KEY, members -> handled.add(new ArrayList<>(members)), new CacheMetrics());
+    }
+
+    @AfterEach
+    void tearDown() {
+        queue.stop();
+    }
+
+    @Test
+    void tickHandlesOnlyClaimedMembers() {
+        long past = System.currentTimeMillis() - 1000;
+        Map<String, Long> deadlines = new LinkedHashMap<>();
+        deadlines.put("a", past);
+        deadlines.put("b", past);
+        deadlines.put("c", past);
+        queue.schedule(deadlines);
+        // b已经被其他节点领取，脚本只返回a和c
+        doReturn(raw("a", "c")).when(template).execute(any(RedisCallback.class));
+
+        queue.tick();
+
+        assertEquals(Collections.singletonList(Arrays.asList("a", "c")), handled);
+        verify(zSet).remove(KEY, "a", "c");
+        // 脚本收到的是按成员领取的参数：key、当前时间、租期、批量大小，然后是到期的成员
+        byte[][] args = scriptArgs();
+        assertArrayEquals(bytes(KEY), args[0]);
+        assertArrayEquals(bytes(String.valueOf(DELAY_QUEUE_CLAIM_LEASE)), args[2]);
+        assertEquals(Arrays.asList("a", "b", "c"), strings(Arrays.copyOfRange(args, 4, args.length)));
+    }
+
+    @Test
+    void failedHandlerLeavesMembersForRetry() {
+        queue.stop();
+        queue = new RedisDelayQueue(template, KEY, members -> {
+            throw new IllegalStateException("处理失败");
+        }, new CacheMetrics());
+        doReturn(raw("a", "b")).when(template).execute(any(RedisCallback.class));
+
+        queue.poll();
+
+        // 没有删除，租期过后由轮询重新领取
+        verifyNoInteractions(zSet);
+    }
+
+    @Test
+    void pollClaimsUntilFewerThanBatchSize() {
+        String[] full = new String[DELAY_QUEUE_BATCH_SIZE];
+        for (int i = 0; i < full.length; i++) {
+            full[i] = "m" + i;
+        }
+        doReturn(raw(full), raw("x"), raw("y")).when(template).execute(any(RedisCallback.class));
+
+        queue.poll();
+
+        // 第一批领满了，继续领取；第二批不满，说明已经没有到期的任务
+        verify(template, times(2)).execute(any(RedisCallback.class));
+        assertEquals(Arrays.asList(Arrays.asList(full), Collections.singletonList("x")), handled);
+        verify(zSet).remove(KEY, (Object[]) full);
+        verify(zSet).remove(KEY, "x");
+        // 按分数范围领取时不传成员
+        assertEquals(4, scriptArgs().length);
+    }
+
+    @Test
+    @Tag("redis")
+    void leaseHidesClaimedMembersFromOtherNodes() {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379)));
+        factory.afterPropertiesSet();
+        StringRedisTemplate redis = new StringRedisTemplate(factory);
+        String key = KEY + ":" + System.nanoTime();
+        List<String> handledByB = new ArrayList<>();
+        RedisDelayQueue nodeA = new RedisDelayQueue(redis, key, members -> {
+            throw new IllegalStateException("处理失败");
+        }, new CacheMetrics());
+        RedisDelayQueue nodeB = new RedisDelayQueue(redis, key, handledByB::addAll, new CacheMetrics());
+        try {
+            long now = System.currentTimeMillis();
+            Map<String, Long> deadlines = new LinkedHashMap<>();
+            deadlines.put("due", now - 1000);
+            deadlines.put("later", now + 60 * 1000);
+            nodeA.schedule(deadlines);
+
+            // 1.A领取后处理失败：任务留在zset里，分数改成租期的结束时间
+            nodeA.poll();
+            Double leased = redis.opsForZSet().score(key, "due");
+            assertTrue(leased != null && leased >= now + DELAY_QUEUE_CLAIM_LEASE);
+            // 2.租期内B领取不到，按成员领取也领取不到
+            nodeB.poll();
+            nodeB.schedule(Collections.singletonMap("due", now - 1000));
+            //schedule会覆盖分数，放回A领取时的租期，模拟B的时间轮在租期内到期
+            redis.opsForZSet().add(key, "due", leased);
+            nodeB.tick();
+            assertTrue(handledByB.isEmpty());
+            // 3.租期过后B重新领取，处理成功后删除；没有到期的任务不受影响
+            redis.opsForZSet().add(key, "due", now - 1000);
+            nodeB.poll();
+            assertEquals(Collections.singletonList("due"), handledByB);
+            assertNull(redis.opsForZSet().score(key, "due"));
+            assertEquals(now + 60 * 1000, redis.opsForZSet().score(key, "later").longValue());
+        } finally {
+            nodeA.stop();
+            nodeB.stop();
+            redis.delete(key);
+            factory.destroy();
+        }
+    }
+
+    //最后一次执行Lua脚本时传入的keys和参数
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private byte[][] scriptArgs() {
+        ArgumentCaptor<RedisCallback> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(template, atLeastOnce()).execute(callback.capture());
+        RedisConnection connection = mock(RedisConnection.class);
+        callback.getValue().doInRedis(connection);
+        ArgumentCaptor<byte[]> args = ArgumentCaptor.forClass(byte[].class);
+        verify(connection).eval(any(byte[].class), eq(ReturnType.MULTI), eq(1), args.capture());
+        return args.getAllValues().toArray(new byte[0][]);
+    }
+
+    private static List<byte[]> raw(String... members) {
+        List<byte[]> result = new ArrayList<>(members.length);
+        for (String member : members) {
+            result.add(bytes(member));
+        }
+        return result;
+    }
+
+    private static List<String> strings(byte[][] values) {
+        List<String> result = new ArrayList<>(values.length);
+        for (byte[] value : values) {
+            result.add(new String(value, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 号段id生成器的压测：64个线程并发取id，输出IDs/sec、租用次数和等待次数，并校验id全局唯一、单线程内递增。
+ * 号段来源用内存计数器模拟，每次租用sleep一段时间模拟Redis往返，不需要启动Spring容器。
+ * 作为对比，另外测一次"每个id一次INCR"的吞吐。耗时较长，带benchmark标签，默认不运行。
+ */
+@Slf4j
+@Tag("benchmark")
+class SegmentIdGeneratorBenchmarkTests {
+
+    private static final int THREADS = 64;
+    private static final int IDS_PER_THREAD = 100000;
+    private static final int BASELINE_IDS_PER_THREAD = 500;
+    private static final long ROUND_TRIP_MILLIS = 1;
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    @Test
+    void benchmarkSegment() throws InterruptedException {
+        SegmentIdGenerator generator = new SegmentIdGenerator(slowCounter(), prefetchExecutor,
+                RedisConstants.ID_SEGMENT_MIN_STEP, RedisConstants.ID_SEGMENT_MAX_STEP,
+                RedisConstants.ID_SEGMENT_TARGET_DURATION, RedisConstants.ID_SEGMENT_PREFETCH_RATIO);
+        long[][] ids = new long[THREADS][IDS_PER_THREAD];
+        long elapsed = run(ids, (thread, i) -> generator.nextId("order"));
+        log.info("segment threads={} ids={} elapsed={}ms ids/sec={} leases={} stalls={}",
+                THREADS, THREADS * IDS_PER_THREAD, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                (long) (THREADS * (double) IDS_PER_THREAD * 1e9 / elapsed), generator.leases(), generator.stalls());
+        assertUnique(ids);
+    }
+
+    @Test
+    void benchmarkIncrPerId() throws InterruptedException {
+        SegmentIdGenerator.Allocator counter = slowCounter();
+        long[][] ids = new long[THREADS][BASELINE_IDS_PER_THREAD];
+        long elapsed = run(ids, (thread, i) -> counter.allocate("order", 1));
+        log.info("incr threads={} ids={} elapsed={}ms ids/sec={}",
+                THREADS, THREADS * BASELINE_IDS_PER_THREAD, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                (long) (THREADS * (double) BASELINE_IDS_PER_THREAD * 1e9 / elapsed));
+        assertUnique(ids);
+    }
+
+    //每次租用都有一次网络往返的内存计数器
+    private static SegmentIdGenerator.Allocator slowCounter() {
+        AtomicLong counter = new AtomicLong();
+        return (key, step) -> {
+            try {
+                Thread.sleep(ROUND_TRIP_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return counter.getAndAdd(step);
+        };
+    }
+
+    private interface IdSupplier {
+        long next(int thread, int i);
+    }
+
+    private static long run(long[][] ids, IdSupplier supplier) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < ids[thread].length; i++) {
+                        ids[thread][i] = supplier.next(thread, i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        return elapsed;
+    }
+
+    private static void assertUnique(long[][] ids) {
+        int total = 0;
+        for (long[] perThread : ids) {
+            for (int i = 1; i < perThread.length; i++) {
+                assertTrue(perThread[i] > perThread[i - 1], "单线程内id必须递增");
+            }
+            total += perThread.length;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] perThread : ids) {
+            System.arraycopy(perThread, 0, all, offset, perThread.length);
+            offset += perThread.length;
+        }
+        Arrays.sort(all);
+        int duplicates = 0;
+        for (int i = 1; i < all.length; i++) {
+            if (all[i] == all[i - 1]) {
+                duplicates++;
+            }
+        }
+        assertEquals(0, duplicates);
+    }
+}
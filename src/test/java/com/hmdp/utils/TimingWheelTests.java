@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分层时间轮：任务不会提前到期，最多晚一格（tick）；各层边界上的到期时间、跨层降级、超出最高层范围的任务都按时到期。
+ * 第0层每格10毫秒，每层8格，共3层，三层的范围分别是80、640、5120毫秒。
+ */
+class TimingWheelTests {
+
+    private static final long TICK = 10;
+    private static final int WHEEL_SIZE = 8;
+    private static final int LEVELS = 3;
+
+    @Test
+    void boundaryDeadlinesFireWithinOneTick() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, WHEEL_SIZE, LEVELS, 0);
+        List<Long> deadlines = Arrays.asList(0L, 9L, 10L, 79L, 80L, 81L, 639L, 640L, 641L, 5119L, 5120L, 5121L);
+        for (Long deadline : deadlines) {
+            assertTrue(wheel.add(deadline, deadline));
+        }
+        assertEquals(deadlines.size(), wheel.size());
+        assertFiredOnTime(wheel, 0, deadlines, 6000);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void unalignedCurrentTime() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, WHEEL_SIZE, LEVELS, 3);
+        // 推进到各层都不在格子开头的位置，再添加跨越各层边界的任务
+        long now = 5 * 80 + 3 * TICK + 7;
+        assertTrue(wheel.advance(now).isEmpty());
+        long current = now - now % TICK;
+        List<Long> deadlines = new ArrayList<>();
+        for (long offset : new long[]{0, 1, 9, 10, 49, 50, 79, 80, 81, 239, 240, 241, 639, 640, 641,
+                4719, 4720, 5119, 5120, 5121, 9999}) {
+            deadlines.add(current + offset);
+        }
+        for (Long deadline : deadlines) {
+            assertTrue(wheel.add(deadline, deadline));
+        }
+        assertFiredOnTime(wheel, current, deadlines, current + 11000);
+    }
+
+    @Test
+    void randomDeadlinesCascadeDownOnTime() {
+        Random random = new Random(42);
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, WHEEL_SIZE, LEVELS, 0);
+        Map<Long, Long> firedAt = new HashMap<>();
+        List<Long> deadlines = new ArrayList<>();
+        // 一边推进一边添加，添加时的当前时间落在各层格子的不同位置
+        for (long now = TICK; now <= 20000; now += TICK) {
+            for (Long payload : wheel.advance(now)) {
+                assertTrue(firedAt.put(payload, now) == null, "任务重复到期：" + payload);
+            }
+            if (now <= 8000 && random.nextInt(3) == 0) {
+                long deadline = now + random.nextInt(12000);
+                if (!deadlines.contains(deadline)) {
+                    deadlines.add(deadline);
+                    assertTrue(wheel.add(deadline, deadline));
+                }
+            }
+        }
+        for (Long deadline : deadlines) {
+            assertFiredWithinOneTick(deadline, firedAt.get(deadline));
+        }
+        assertEquals(deadlines.size(), firedAt.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void expiredDeadlineIsRejected() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, WHEEL_SIZE, LEVELS, 0);
+        wheel.advance(100);
+        assertFalse(wheel.add(99L, 99));
+        assertEquals(0, wheel.size());
+        // 到期时间正好是当前格子的开始，放进当前格子，下一次推进时到期
+        assertTrue(wheel.add(100L, 100));
+        assertTrue(wheel.advance(109).isEmpty());
+        assertEquals(Arrays.asList(100L), wheel.advance(110));
+    }
+
+    //按tick推进到end，校验每个任务都到期了一次，并且不早于到期时间、最多晚一格
+    private static void assertFiredOnTime(TimingWheel<Long> wheel, long start, List<Long> deadlines, long end) {
+        Map<Long, Long> firedAt = new HashMap<>();
+        for (long now = start + TICK; now <= end; now += TICK) {
+            for (Long payload : wheel.advance(now)) {
+                assertTrue(firedAt.put(payload, now) == null, "任务重复到期：" + payload);
+            }
+        }
+        for (Long deadline : deadlines) {
+            assertFiredWithinOneTick(deadline, firedAt.get(deadline));
+        }
+    }
+
+    private static void assertFiredWithinOneTick(long deadline, Long firedAt) {
+        assertNotNull(firedAt, "任务没有到期：" + deadline);
+        assertTrue(firedAt >= deadline, "任务提前到期：deadline=" + deadline + " firedAt=" + firedAt);
+        assertTrue(firedAt - deadline <= TICK, "任务延后超过一格：deadline=" + deadline + " firedAt=" + firedAt);
+    }
+}
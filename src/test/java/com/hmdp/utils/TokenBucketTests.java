@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 令牌桶（GCRA）：初始允许突发capacity个请求，之后按速率补充，并发获取时放行的个数不会超过令牌数。
+ * 用的是真实时间，速率和等待时间都留了足够的余量。
+ */
+class TokenBucketTests {
+
+    @Test
+    void burstUpToCapacity() {
+        // 每秒1个，测试期间不会补充
+        TokenBucket bucket = new TokenBucket(1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void refillsAfterInterval() throws InterruptedException {
+        // 每50毫秒补充1个，桶容量1
+        TokenBucket bucket = new TokenBucket(20, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        Thread.sleep(60);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void idleTimeDoesNotExceedCapacity() throws InterruptedException {
+        // 空闲很久之后也只能突发capacity个，不会攒下更多令牌
+        TokenBucket bucket = new TokenBucket(100, 3);
+        Thread.sleep(200);
+        int granted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (bucket.tryAcquire()) {
+                granted++;
+            }
+        }
+        assertEquals(3, granted);
+    }
+
+    @Test
+    void sustainedRateFollowsPermitsPerSecond() {
+        double permitsPerSecond = 100;
+        TokenBucket bucket = new TokenBucket(permitsPerSecond, 1);
+        long begin = System.nanoTime();
+        long end = begin + TimeUnit.MILLISECONDS.toNanos(300);
+        int granted = 0;
+        while (System.nanoTime() < end) {
+            if (bucket.tryAcquire()) {
+                granted++;
+            }
+        }
+        double expected = (System.nanoTime() - begin) / 1e9 * permitsPerSecond;
+        // 上限是确定的：时长内补充的令牌加上初始的1个；下限留出调度的余量
+        assertTrue(granted <= expected + 2, "放行过多：" + granted + " expected=" + expected);
+        assertTrue(granted >= expected * 0.8, "放行过少：" + granted + " expected=" + expected);
+    }
+
+    @Test
+    void concurrentAcquireNeverOverGrants() throws Exception {
+        int threads = 16;
+        int capacity = 1000;
+        // 每10秒才补充1个，测试期间放行的个数就是桶容量
+        TokenBucket bucket = new TokenBucket(0.1, capacity);
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < capacity; i++) {
+                    if (bucket.tryAcquire()) {
+                        granted.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertEquals(capacity, granted.get());
+    }
+}